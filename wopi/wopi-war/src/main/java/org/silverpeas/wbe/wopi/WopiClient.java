@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.wbe.wopi.discovery.DiscoveryChanges;
+import org.silverpeas.wbe.wopi.discovery.DiscoveryCircuitBreaker;
+import org.silverpeas.wbe.wopi.discovery.DiscoverySnapshot;
+import org.silverpeas.wbe.wopi.discovery.DiscoverySnapshotStore;
+import org.silverpeas.wbe.wopi.util.WopiSettings;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.net.http.HttpResponse.BodyHandlers.ofInputStream;
+import static java.text.MessageFormat.format;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.util.Optional.ofNullable;
+import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import static org.silverpeas.core.util.HttpUtil.httpClientTrustingAnySslContext;
+import static org.silverpeas.core.util.HttpUtil.toUrl;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+import static org.silverpeas.wbe.wopi.util.WopiSettings.*;
+
+/**
+ * A WOPI client server, identified by its base URL, with its own discovery state.
+ * <p>
+ *   WOPI discovery is the process by which a WOPI host identifies Office for the web
+ *   capabilities and how to initialize Office for the web applications within a site. WOPI hosts
+ *   use the discovery XML to determine how to interact with Office for the web.
+ * </p>
+ * <p>
+ *   The discovery is processed every {@link WopiSettings#getWopiClientDiscoveryTimeToLive}
+ *   hours to ensures the most up-to-date capabilities.
+ * </p>
+ * <p>
+ *   When {@link WopiSettings#isWopiClientDiscoveryRefreshedInBackground()} is enabled, an
+ *   expired discovery is still served while a new one is fetched by the discovery executor.
+ *   Otherwise, the callers wait for the refresh of an expired discovery. In any case, the very
+ *   first discovery (or the one following a change of the discovery URL) makes the callers
+ *   waiting for its result.
+ * </p>
+ * <p>
+ *   When a discovery fails, no other one is attempted until the end of a backoff delay (see
+ *   {@link DiscoveryCircuitBreaker}). During this delay, the last discovered capabilities are
+ *   used if any.
+ * </p>
+ * <p>
+ *   The last good discovery is persisted (see {@link DiscoverySnapshotStore}). It is loaded at
+ *   the start of Silverpeas (see {@link #restorePersistedDiscovery()}), or else at the first
+ *   call, so the capabilities are immediately known after a restart, and it is then revalidated
+ *   in background.
+ * </p>
+ * @author silveryocha
+ */
+class WopiClient {
+
+  private final String baseUrl;
+  private final boolean pooled;
+  private final Executor discoveryExecutor;
+  private final DiscoveryListener listener;
+  private final AtomicBoolean persistedDiscoveryLoaded = new AtomicBoolean(false);
+  private final AtomicReference<CompletableFuture<DiscoverySnapshot>> pendingDiscovery =
+      new AtomicReference<>();
+  private final DiscoveryCircuitBreaker discoveryCircuitBreaker = new DiscoveryCircuitBreaker();
+  private final WopiClientHealth health = new WopiClientHealth();
+  private volatile DiscoverySnapshot discovery;
+
+  /**
+   * Constructs a WOPI client.
+   * @param baseUrl the base URL of the WOPI client server.
+   * @param pooled true if the client is one of several WOPI client servers.
+   * @param discoveryExecutor the executor of the discoveries.
+   * @param listener the listener of the successful discoveries.
+   */
+  WopiClient(final String baseUrl, final boolean pooled, final Executor discoveryExecutor,
+      final DiscoveryListener listener) {
+    this.baseUrl = baseUrl;
+    this.pooled = pooled;
+    this.discoveryExecutor = discoveryExecutor;
+    this.listener = listener;
+  }
+
+  /**
+   * Gets the base URL of the WOPI client server.
+   * @return an URL as string.
+   */
+  String getBaseUrl() {
+    return baseUrl;
+  }
+
+  /**
+   * Indicates if the client is one of several WOPI client servers.
+   * @return true if the client is pooled with other ones, false otherwise.
+   */
+  boolean isPooled() {
+    return pooled;
+  }
+
+  /**
+   * Gets the last discovery of the client if any, whatever its expiration. A discovery fetched
+   * from another URL than the current discovery URL is not given, as it is the one of a
+   * previous configuration.
+   * @return an optional {@link DiscoverySnapshot}.
+   */
+  Optional<DiscoverySnapshot> getDiscovery() {
+    return ofNullable(discovery).filter(d -> d.isFrom(getWopiClientDiscoveryUrl(baseUrl)));
+  }
+
+  /**
+   * Gets the status of the discovery of the client.
+   * @return a {@link DiscoveryCircuitBreaker.Status} instance.
+   */
+  DiscoveryCircuitBreaker.Status getDiscoveryStatus() {
+    return discoveryCircuitBreaker.getStatus();
+  }
+
+  /**
+   * Gets the health of the client, computed from regular probes.
+   * @return the {@link WopiClientHealth} of the client.
+   */
+  WopiClientHealth getHealth() {
+    return health;
+  }
+
+  /**
+   * Indicates if the client is available, that is if its capabilities are known and if its
+   * last discovery succeeded.
+   * @return true if available, false otherwise.
+   */
+  boolean isAvailable() {
+    return getDiscovery().isPresent() &&
+        discoveryCircuitBreaker.getStatus().getState() == DiscoveryCircuitBreaker.State.CLOSED;
+  }
+
+  /**
+   * Forgets the discovered capabilities.
+   */
+  void clear() {
+    discovery = null;
+  }
+
+  /**
+   * Gets the discovery of the client, fetching it if necessary.
+   * <p>
+   *   The returned future is already completed when a discovery is known, even if an expired one
+   *   is being refreshed in background. It is not yet completed when the discovery has to be
+   *   waited for: the first one, the one following a change of the discovery URL, or the refresh
+   *   of an expired one when it is not performed in background. It is a failed one at once when
+   *   the discovery is failing (see {@link DiscoveryCircuitBreaker}).
+   * </p>
+   * @return the future snapshot of the discovered capabilities.
+   */
+  CompletableFuture<DiscoverySnapshot> discover() {
+    final String discoveryUrl = getWopiClientDiscoveryUrl(baseUrl);
+    final DiscoverySnapshot current = discovery != null ? discovery :
+        loadPersistedDiscovery(discoveryUrl).orElse(null);
+    if (current == null || !current.isFrom(discoveryUrl)) {
+      return refreshDiscovery(discoveryUrl);
+    } else if (discoveryCircuitBreaker.isCallPermitted() &&
+        current.isExpired(getDiscoveryTimeToLive())) {
+      final CompletableFuture<DiscoverySnapshot> refresh = refreshDiscovery(discoveryUrl);
+      if (!isWopiClientDiscoveryRefreshedInBackground()) {
+        return refresh;
+      }
+    }
+    return CompletableFuture.completedFuture(current);
+  }
+
+  /**
+   * Restores the persisted discovery, if any and if not already done, without waiting for a
+   * discovery over the network. The restored discovery is then revalidated in background.
+   */
+  void restorePersistedDiscovery() {
+    if (discovery == null) {
+      loadPersistedDiscovery(getWopiClientDiscoveryUrl(baseUrl));
+    }
+  }
+
+  /**
+   * Refreshes the discovery if it is expired.
+   */
+  void refreshExpiredDiscovery() {
+    final DiscoverySnapshot current = discovery;
+    if (current != null && current.isExpired(getDiscoveryTimeToLive())) {
+      refreshDiscovery(getWopiClientDiscoveryUrl(baseUrl));
+    }
+  }
+
+  /**
+   * Triggers a discovery from the given URL on the discovery executor. If a discovery is
+   * already running, no other one is triggered and the running one is returned.
+   * @param discoveryUrl the URL of the discovery.
+   * @return the future snapshot of the discovered capabilities.
+   */
+  private CompletableFuture<DiscoverySnapshot> refreshDiscovery(final String discoveryUrl) {
+    if (!discoveryCircuitBreaker.isCallPermitted()) {
+      return CompletableFuture.failedFuture(new WebApplicationException(SERVICE_UNAVAILABLE));
+    }
+    while (true) {
+      final CompletableFuture<DiscoverySnapshot> pending = pendingDiscovery.get();
+      if (pending != null) {
+        return pending;
+      }
+      final CompletableFuture<DiscoverySnapshot> refresh = new CompletableFuture<>();
+      if (pendingDiscovery.compareAndSet(null, refresh)) {
+        discoveryExecutor.execute(() -> {
+          try {
+            refresh.complete(fetchDiscovery(discoveryUrl));
+          } catch (Exception e) {
+            refresh.completeExceptionally(e);
+          } finally {
+            pendingDiscovery.compareAndSet(refresh, null);
+          }
+        });
+        return refresh;
+      }
+    }
+  }
+
+  /**
+   * Loads, only once, the persisted discovery if it has been fetched from the given URL. In that
+   * case, the discovery is then revalidated in background.
+   * @param discoveryUrl the current discovery URL.
+   * @return the optional persisted snapshot.
+   */
+  private Optional<DiscoverySnapshot> loadPersistedDiscovery(final String discoveryUrl) {
+    if (persistedDiscoveryLoaded.get() || !persistedDiscoveryLoaded.compareAndSet(false, true)) {
+      return Optional.empty();
+    }
+    final Optional<DiscoverySnapshot> persisted = getSnapshotStore()
+        .flatMap(DiscoverySnapshotStore::load)
+        .filter(s -> s.isFrom(discoveryUrl));
+    persisted.ifPresent(s -> {
+      logger().debug(() -> format("using WOPI discovery of {0} fetched at {1}", discoveryUrl,
+          s.getFetchTime()));
+      listener.restored(this, s);
+      discovery = s;
+      refreshDiscovery(discoveryUrl);
+    });
+    return persisted;
+  }
+
+  private DiscoverySnapshot fetchDiscovery(final String discoveryUrl) {
+    logger().debug(() -> format("discovering WOPI client with URL {0}", discoveryUrl));
+    final DiscoverySnapshot snapshot;
+    try {
+      final HttpResponse<InputStream> response = httpClientTrustingAnySslContext().send(toUrl(discoveryUrl)
+          .timeout(Duration.of(2, SECONDS))
+          .build(), ofInputStream());
+      if (response.statusCode() != OK.getStatusCode()) {
+        throw new WebApplicationException(response.statusCode());
+      }
+      try (final InputStream body = response.body()) {
+        snapshot = DiscoverySnapshot.load(discoveryUrl, body);
+      }
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      final DiscoveryCircuitBreaker.Status status = discoveryCircuitBreaker.recordFailure(e,
+          getWopiClientDiscoveryInitialRetryDelay(), getWopiClientDiscoveryMaxRetryDelay());
+      logger().warn(() -> format(
+          "WOPI client discovery {0} failed {1} time(s) ({2}), next try at {3}", discoveryUrl,
+          status.getConsecutiveFailures(), e.getMessage(), status.getRetryAfter().orElse(null)));
+      throw new WebApplicationException(e);
+    }
+    discoveryCircuitBreaker.recordSuccess();
+    listener.discovered(this, snapshot.changesFrom(discovery));
+    discovery = snapshot;
+    getSnapshotStore().ifPresent(s -> s.save(snapshot));
+    return snapshot;
+  }
+
+  /**
+   * Gets the store of the discovery of this client. When several WOPI client servers are
+   * configured, each of them has its own file, suffixed by a stable hash of its base URL.
+   * @return an optional {@link DiscoverySnapshotStore}, empty if the persistence is disabled.
+   */
+  private Optional<DiscoverySnapshotStore> getSnapshotStore() {
+    return getWopiClientDiscoverySnapshotPath()
+        .map(p -> pooled ?
+            p.resolveSibling(p.getFileName() + "-" + Integer.toHexString(baseUrl.hashCode())) :
+            p)
+        .map(DiscoverySnapshotStore::new);
+  }
+
+  private static Duration getDiscoveryTimeToLive() {
+    return Duration.ofHours(getWopiClientDiscoveryTimeToLive());
+  }
+
+  @Override
+  public String toString() {
+    return baseUrl;
+  }
+
+  /**
+   * Listener of the successful discoveries of a WOPI client, and of the restorations of its
+   * persisted discovery.
+   */
+  @FunctionalInterface
+  interface DiscoveryListener {
+
+    /**
+     * Invoked when a discovery has been fetched, just before it replaces the previous one.
+     * @param client the discovered client.
+     * @param changes the changes of the capabilities of the client.
+     */
+    void discovered(WopiClient client, DiscoveryChanges changes);
+
+    /**
+     * Invoked when a persisted discovery has been restored, just before it becomes the discovery
+     * of the client. Nothing is done by default.
+     * @param client the restored client.
+     * @param snapshot the restored discovery.
+     */
+    default void restored(WopiClient client, DiscoverySnapshot snapshot) {
+      // nothing by default
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.text.MessageFormat.format;
+import static java.util.Optional.ofNullable;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+
+/**
+ * The health of a WOPI client server, computed from regular probes of one of its endpoints.
+ * <p>
+ *   Each probe measures the response latency and whether the server answered successfully. Both
+ *   are smoothed into a small {@link Score} by an exponentially weighted moving average, so a
+ *   single slow or failed probe does not exclude a server whereas a lasting overload does.
+ * </p>
+ * <p>
+ *   The score is immutable and swapped atomically, so it can be read without synchronization
+ *   when routing the editions.
+ * </p>
+ * @author silveryocha
+ */
+public class WopiClientHealth {
+
+  private static final double SMOOTHING = 0.3;
+  private static final Score UNKNOWN = new Score(0, 0, 0, null);
+
+  private final AtomicReference<Score> score = new AtomicReference<>(UNKNOWN);
+
+  /**
+   * Probes the given health URL with the given HTTP client and records the result.
+   * @param httpClient the HTTP client to use.
+   * @param healthUrl the URL of the health or capabilities endpoint of the server.
+   * @param timeout the maximum duration of the probe. A probe exceeding it is a failed one.
+   * @return the new score of the server.
+   */
+  public Score probe(final HttpClient httpClient, final String healthUrl,
+      final Duration timeout) {
+    final long start = System.nanoTime();
+    boolean success;
+    try {
+      final HttpRequest request = HttpRequest.newBuilder(URI.create(healthUrl))
+          .timeout(timeout)
+          .GET()
+          .build();
+      final HttpResponse<Void> response =
+          httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+      success = response.statusCode() >= 200 && response.statusCode() < 300;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      success = false;
+    } catch (Exception e) {
+      success = false;
+    }
+    final Duration latency = Duration.ofNanos(System.nanoTime() - start);
+    final Score newScore = record(success, latency);
+    logger().debug(() -> format("WOPI client {0} probed: {1}", healthUrl, newScore));
+    return newScore;
+  }
+
+  /**
+   * Records the result of a probe.
+   * @param success true if the server answered successfully, false otherwise.
+   * @param latency the response latency of the server.
+   * @return the new score of the server.
+   */
+  public Score record(final boolean success, final Duration latency) {
+    return score.updateAndGet(s -> {
+      final double error = success ? 0 : 1;
+      final double latencyMillis = latency.toMillis();
+      if (s.getProbes() == 0) {
+        return new Score(latencyMillis, error, 1, Instant.now());
+      }
+      return new Score(smooth(s.getLatency().toMillis(), latencyMillis),
+          smooth(s.getErrorRate(), error), s.getProbes() + 1, Instant.now());
+    });
+  }
+
+  /**
+   * Gets the current score of the server.
+   * @return a {@link Score} instance.
+   */
+  public Score getScore() {
+    return score.get();
+  }
+
+  /**
+   * Indicates if a new probe is due according to the given period.
+   * @param period the period of the probes.
+   * @return true if the server has to be probed, false otherwise.
+   */
+  public boolean isProbeDue(final Duration period) {
+    return score.get().getLastProbe()
+        .map(l -> !l.plus(period).isAfter(Instant.now()))
+        .orElse(true);
+  }
+
+  /**
+   * Indicates if the server is saturated, that is if its smoothed response latency exceeds the
+   * given one. A server never probed is not saturated.
+   * @param maxLatency the maximum acceptable latency.
+   * @return true if saturated, false otherwise.
+   */
+  public boolean isSaturated(final Duration maxLatency) {
+    return score.get().getLatency().compareTo(maxLatency) > 0;
+  }
+
+  /**
+   * Indicates if the server is failing, that is if its smoothed error rate exceeds the given
+   * one. A server never probed is not failing.
+   * @param maxErrorRate the maximum acceptable error rate, between 0 and 1.
+   * @return true if failing, false otherwise.
+   */
+  public boolean isFailing(final double maxErrorRate) {
+    return score.get().getErrorRate() > maxErrorRate;
+  }
+
+  private static double smooth(final double average, final double value) {
+    return SMOOTHING * value + (1 - SMOOTHING) * average;
+  }
+
+  /**
+   * The load score of a server.
+   */
+  public static class Score {
+    private final double latencyMillis;
+    private final double errorRate;
+    private final long probes;
+    private final Instant lastProbe;
+
+    private Score(final double latencyMillis, final double errorRate, final long probes,
+        final Instant lastProbe) {
+      this.latencyMillis = latencyMillis;
+      this.errorRate = errorRate;
+      this.probes = probes;
+      this.lastProbe = lastProbe;
+    }
+
+    /**
+     * Gets the smoothed response latency.
+     * @return a {@link Duration}.
+     */
+    public Duration getLatency() {
+      return Duration.ofMillis(Math.round(latencyMillis));
+    }
+
+    /**
+     * Gets the smoothed error rate.
+     * @return a rate between 0 and 1.
+     */
+    public double getErrorRate() {
+      return errorRate;
+    }
+
+    /**
+     * Gets the number of probes.
+     * @return a number of probes.
+     */
+    public long getProbes() {
+      return probes;
+    }
+
+    /**
+     * Gets the instant of the last probe.
+     * @return an optional {@link Instant}, empty if the server has never been probed.
+     */
+    public Optional<Instant> getLastProbe() {
+      return ofNullable(lastProbe);
+    }
+
+    @Override
+    public String toString() {
+      return format("latency={0}ms, errorRate={1}, probes={2}", Math.round(latencyMillis),
+          errorRate, probes);
+    }
+  }
+}
@@ -30,41 +30,126 @@ import org.silverpeas.core.wbe.WbeClientManager;
 import org.silverpeas.core.wbe.WbeFile;
 import org.silverpeas.core.wbe.WbeHostManager;
 import org.silverpeas.core.wbe.WbeUser;
-import org.silverpeas.wbe.wopi.discovery.WopiDiscovery;
+import org.silverpeas.wbe.wopi.discovery.DiscoveryChanges;
+import org.silverpeas.wbe.wopi.discovery.DiscoveryCircuitBreaker;
+import org.silverpeas.wbe.wopi.discovery.DiscoverySnapshot;
+import org.silverpeas.wbe.wopi.util.ConsistentHashRing;
+import org.silverpeas.wbe.wopi.util.WopiConfiguration;
 import org.silverpeas.wbe.wopi.util.WopiSettings;
 
-import javax.ws.rs.WebApplicationException;
-import java.io.InputStream;
-import java.net.http.HttpResponse;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
 import java.time.Duration;
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
-import static java.net.http.HttpResponse.BodyHandlers.ofInputStream;
 import static java.text.MessageFormat.format;
-import static java.time.temporal.ChronoUnit.HOURS;
-import static java.time.temporal.ChronoUnit.SECONDS;
 import static java.util.Optional.*;
-import static javax.ws.rs.core.Response.Status.OK;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 import static org.silverpeas.core.util.HttpUtil.httpClientTrustingAnySslContext;
-import static org.silverpeas.core.util.HttpUtil.toUrl;
 import static org.silverpeas.core.wbe.WbeLogger.logger;
-import static org.silverpeas.kernel.util.StringUtil.isDefined;
+import static org.silverpeas.wbe.wopi.discovery.WopiActionTable.EDIT;
+import static org.silverpeas.wbe.wopi.discovery.WopiActionTable.VIEW;
 import static org.silverpeas.wbe.wopi.util.WopiSettings.*;
 
 /**
+ * The manager of the WOPI clients.
+ * <p>
+ *   Several WOPI client servers can be configured (see
+ *   {@link WopiSettings#getWopiClientBaseUrls()}). Each of them is discovered independently (see
+ *   {@link WopiClient}) and the editions are spread over them by a consistent hashing of the
+ *   file identifiers: all the co-editors of a document are sent to the same server whereas the
+ *   different documents are distributed over all the available servers.
+ * </p>
+ * <p>
+ *   The health of each server is probed regularly (see {@link WopiClientHealth}). No new
+ *   document is sent to a saturated server and no edition at all is sent to a failing one, as
+ *   long as other servers are in a better state. The documents already edited on a saturated
+ *   server stay on it, so all their co-editors still share the same server.
+ * </p>
+ * <p>
+ *   The host side editions are cleared only when a new discovery removes or modifies an
+ *   already handled mime-type or extension (see {@link DiscoveryChanges}).
+ * </p>
  * @author silveryocha
  */
 @Service
 public class WopiClientManager implements WbeClientManager {
 
-  private final Map<String, String> baseUrlByMimeTypes = new ConcurrentHashMap<>();
-  private final Map<String, String> baseUrlByExtension = new ConcurrentHashMap<>();
-  private LocalDateTime lastDateTimeOfDiscoveryGet;
-  private String lastDiscoveryUrl;
+  private static final int VIRTUAL_NODES_BY_CLIENT = 100;
+  private static final Duration HEALTH_PROBE_TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration EDITION_AFFINITY_TIME_TO_LIVE = Duration.ofHours(12);
+
+  private static final int DISCOVERY_THREADS = 2;
+  private static final int PROBE_THREADS = 2;
+
+  private final AtomicBoolean discoverySchedulerStarted = new AtomicBoolean(false);
+  private final AtomicReference<WopiClientPool> clientPool =
+      new AtomicReference<>(new WopiClientPool(List.of(), Map.of()));
+  private final Set<String> registeredSecurityDomains = ConcurrentHashMap.newKeySet();
+  private final Map<String, EditionAffinity> editionAffinities = new ConcurrentHashMap<>();
+  private final WopiClient.DiscoveryListener discoveryListener =
+      new WopiClient.DiscoveryListener() {
+        @Override
+        public void discovered(final WopiClient client, final DiscoveryChanges changes) {
+          WopiClientManager.this.discovered(client, changes);
+        }
+
+        @Override
+        public void restored(final WopiClient client, final DiscoverySnapshot snapshot) {
+          // the capabilities are those of the last run: only the security domains are missing
+          registerSecurityDomains(client.getBaseUrl());
+        }
+      };
+  private ExecutorService discoveryExecutor;
+  private ExecutorService probeExecutor;
+
+  @Inject
+  private WopiExecutors executors;
+
+  @PostConstruct
+  protected void init() {
+    discoveryExecutor = executors.newPool(DISCOVERY_THREADS);
+    probeExecutor = executors.newPool(PROBE_THREADS);
+  }
+
+  /**
+   * Restores the persisted discoveries of the WOPI client servers at the start of the
+   * application, so their capabilities are known from the first request on.
+   * @param event the event of the application start.
+   */
+  protected void restoreDiscoveries(
+      @Observes @Initialized(ApplicationScoped.class) final Object event) {
+    try {
+      if (isEnabled()) {
+        getClientPool().clients.forEach(WopiClient::restorePersistedDiscovery);
+      }
+    } catch (RuntimeException e) {
+      logger().error(e);
+    }
+  }
 
   @Override
   public boolean isEnabled() {
@@ -73,13 +158,73 @@ public class WopiClientManager implements WbeClientManager {
 
   @Override
   public boolean isHandled(final WbeFile file) {
-    return getClientBaseUrlFor(file).isPresent();
+    return discover().flatMap(p -> getHandlingClient(clientSelector(p), file)).isPresent();
   }
 
+  /**
+   * Gets, among the given files, the ones handled by a WOPI client server.
+   * <p>
+   *   This is the batch variant of {@link #isHandled(WbeFile)} for the listings of documents:
+   *   the settings and the discovery of the WOPI client servers are read once for all the
+   *   files.
+   * </p>
+   * @param files the files to check.
+   * @return a map of the base URL of the WOPI client server in charge of each handled file,
+   * indexed by file identifier and in the order of the given files. The files which are not
+   * handled are absent.
+   */
+  public Map<String, String> getHandledFiles(final Collection<? extends WbeFile> files) {
+    if (files.isEmpty()) {
+      return Map.of();
+    }
+    return discover().map(p -> {
+      final Function<String, Optional<WopiClient>> selector = clientSelector(p);
+      return getHandledFiles(files, f -> getHandlingClient(selector, f));
+    }).orElseGet(Map::of);
+  }
+
+  /**
+   * Gets, among the given files, the ones handled by a WOPI client server.
+   * @param files the files to check.
+   * @param handlingClient the function giving the WOPI client server handling a file.
+   * @return a map of the base URL of the WOPI client server in charge of each handled file,
+   * indexed by file identifier and in the order of the given files.
+   */
+  static Map<String, String> getHandledFiles(final Collection<? extends WbeFile> files,
+      final Function<WbeFile, Optional<WopiClient>> handlingClient) {
+    final Map<String, String> handled = new LinkedHashMap<>(files.size());
+    files.forEach(f -> handlingClient.apply(f).ifPresent(c -> handled.put(f.id(), c.getBaseUrl())));
+    return handled;
+  }
+
+  /**
+   * Prepares the edition of the given file by the given user.
+   * <p>
+   *   The WOPI client server is chosen by a consistent hashing of the file identifier among the
+   *   available ones, unless the file is already edited on a server which is not failing.
+   * </p>
+   * <p>
+   *   When the user cannot modify the file, the editor URL of the read-only view action is used
+   *   if the WOPI client provides one, so the lighter viewer is loaded instead of the full
+   *   editor.
+   * </p>
+   * @param user the user which is editing the file.
+   * @param file the file to edit.
+   * @return an optional {@link WopiEdition}, empty if the file is not handled.
+   */
   @SuppressWarnings("unchecked")
   @Override
   public Optional<WopiEdition> prepareEditionWith(final WbeUser user, final WbeFile file) {
-    return getClientBaseUrlFor(file).map(u -> new WopiEdition(file, user, u));
+    return selectClient(file).flatMap(c -> c.getDiscovery()
+        .map(DiscoverySnapshot::getActions)
+        .flatMap(a -> a.find(file.mimeType(), file.ext(), EDIT)
+            .map(u -> file.canBeModifiedBy(user.asSilverpeas()) ?
+                u :
+                a.find(file.mimeType(), file.ext(), VIEW).orElse(u)))
+        .map(u -> {
+          editionAffinities.put(file.id(), new EditionAffinity(c));
+          return new WopiEdition(file, user, u, c.getBaseUrl());
+        }));
   }
 
   @Override
@@ -87,6 +232,31 @@ public class WopiClientManager implements WbeClientManager {
     return ofNullable(getWopiClientAdministrationUrl());
   }
 
+  /**
+   * Gets the status of the discovery of each WOPI client server.
+   * <p>
+   *   When a WOPI client server is not reachable, its discovery is not tried again until the end
+   *   of a backoff delay and no edition is sent to it. The status gives the state of this
+   *   mechanism.
+   * </p>
+   * @return a map of {@link DiscoveryCircuitBreaker.Status} indexed by WOPI client base URL.
+   */
+  public Map<String, DiscoveryCircuitBreaker.Status> getDiscoveryStatus() {
+    return clientPool.get().clients.stream()
+        .collect(toMap(WopiClient::getBaseUrl, WopiClient::getDiscoveryStatus, (a, b) -> a,
+            LinkedHashMap::new));
+  }
+
+  /**
+   * Gets the health score of each WOPI client server.
+   * @return a map of {@link WopiClientHealth.Score} indexed by WOPI client base URL.
+   */
+  public Map<String, WopiClientHealth.Score> getHealthScores() {
+    return clientPool.get().clients.stream()
+        .collect(toMap(WopiClient::getBaseUrl, c -> c.getHealth().getScore(), (a, b) -> a,
+            LinkedHashMap::new));
+  }
+
   @Override
   public String getName(final String language) {
     return "LibreOffice Online";
@@ -94,75 +264,226 @@ public class WopiClientManager implements WbeClientManager {
 
   @Override
   public void clear() {
-    baseUrlByMimeTypes.clear();
-    baseUrlByExtension.clear();
+    clientPool.get().clients.forEach(WopiClient::clear);
   }
 
   /**
-   * WOPI discovery is the process by which a WOPI host identifies Office for the web
-   * capabilities and how to initialize Office for the web applications within a site. WOPI hosts
-   * use the discovery XML to determine how to interact with Office for the web.
+   * Selects the WOPI client server in charge of the given file.
+   * @param file the file to edit.
+   * @return an optional {@link WopiClient}, empty if no WOPI client is known.
+   * @see #clientSelector(WopiClientPool)
+   */
+  private Optional<WopiClient> selectClient(final WbeFile file) {
+    return discover().flatMap(p -> clientSelector(p).apply(file.id()));
+  }
+
+  /**
+   * Gets the WOPI client server in charge of the given file if it handles the edition of it.
+   * @param selector the selector of WOPI client server by file identifier.
+   * @param file the file to edit.
+   * @return an optional {@link WopiClient}, empty if the file is not handled.
+   */
+  private static Optional<WopiClient> getHandlingClient(
+      final Function<String, Optional<WopiClient>> selector, final WbeFile file) {
+    return selector.apply(file.id())
+        .filter(c -> c.getDiscovery()
+            .flatMap(d -> d.getActions().find(file.mimeType(), file.ext(), EDIT))
+            .isPresent());
+  }
+
+  /**
+   * Gets a selector of the WOPI client server in charge of a file from its identifier. The
+   * health thresholds are read once, so the selector can be applied to many files.
    * <p>
-   *   The discovery is processed every {@link WopiSettings#getWopiClientDiscoveryTimeToLive}
-   *   hours to ensures the most up-to-date capabilities.
+   *   The server on which the file is already edited is kept if it is not failing. Otherwise,
+   *   the server is chosen on the consistent hash ring by order of preference among the
+   *   available ones which are neither saturated nor failing, then the available ones which are
+   *   not failing, then the available ones, and finally the ones with known capabilities.
    * </p>
+   * @param p the pool of WOPI client servers.
+   * @return a function giving an optional {@link WopiClient} from a file identifier, empty if
+   * no WOPI client is known.
    */
-  private synchronized void discover() {
-    final String discoveryUrl = getWopiClientDiscoveryUrl();
-    if (lastDiscoveryUrl == null ||
-        !lastDiscoveryUrl.equals(discoveryUrl) ||
-        baseUrlByMimeTypes.isEmpty() ||
-        HOURS.between(lastDateTimeOfDiscoveryGet, LocalDateTime.now()) >= getWopiClientDiscoveryTimeToLive()) {
-      WbeHostManager.get().clear();
-      logger().debug(() -> format("discovering WOPI client with URL {0}", discoveryUrl));
+  private Function<String, Optional<WopiClient>> clientSelector(final WopiClientPool p) {
+    final WopiConfiguration configuration = configuration();
+    final Duration maxLatency = configuration.getHealthMaxLatency();
+    final double maxErrorRate = configuration.getHealthMaxErrorRate();
+    final Predicate<WopiClient> sound =
+        c -> c.isAvailable() && !c.getHealth().isFailing(maxErrorRate);
+    final Predicate<WopiClient> unloaded = sound.and(c -> !c.getHealth().isSaturated(maxLatency));
+    return fileId -> ofNullable(editionAffinities.get(fileId))
+        .filter(a -> !a.isExpired())
+        .map(a -> a.client)
+        .filter(c -> p.clientsByBaseUrl.get(c.getBaseUrl()) == c)
+        .filter(sound)
+        .or(() -> p.ring.select(fileId, unloaded))
+        .or(() -> p.ring.select(fileId, sound))
+        .or(() -> p.ring.select(fileId, WopiClient::isAvailable))
+        .or(() -> p.ring.select(fileId, c -> c.getDiscovery().isPresent()));
+  }
+
+  /**
+   * Discovers all the WOPI client servers.
+   * <p>
+   *   The discoveries are triggered for all the servers. When no capabilities are known at all,
+   *   the callers wait for the first successful discovery, or for the failure of all of them,
+   *   but never for the discoveries of the other servers. Otherwise, the callers wait only for
+   *   the discoveries the servers require before serving their capabilities: the ones following
+   *   a change of the discovery URL, and the refreshes of the expired discoveries when they are
+   *   not performed in background. The servers whose discovery is failing are never waited for.
+   * </p>
+   * @return the optional pool of clients, empty if WOPI is disabled.
+   */
+  private Optional<WopiClientPool> discover() {
+    if (!isEnabled()) {
+      final WopiClientPool pool = clientPool.get();
+      if (pool.clients.stream().anyMatch(c -> c.getDiscovery().isPresent())) {
+        pool.clients.forEach(WopiClient::clear);
+        WbeHostManager.get().clear();
+        logger().debug(() -> format("removing all discovered actions because of WOPI disabling"));
+      }
+      return empty();
+    }
+    startDiscoveryScheduler();
+    final WopiClientPool pool = getClientPool();
+    final List<CompletableFuture<DiscoverySnapshot>> discoveries = pool.clients.stream()
+        .map(WopiClient::discover)
+        .collect(toList());
+    if (pool.clients.stream().noneMatch(c -> c.getDiscovery().isPresent())) {
+      awaitFirstDiscovery(discoveries);
+    } else {
+      awaitRequiredDiscoveries(discoveries);
+    }
+    return of(pool);
+  }
+
+  /**
+   * Waits for the given discoveries which are not yet done, that is the ones the clients require
+   * before serving their capabilities. A failed discovery is ignored: the client serves then its
+   * last capabilities if any.
+   * @param discoveries the future discoveries.
+   */
+  private static void awaitRequiredDiscoveries(
+      final List<CompletableFuture<DiscoverySnapshot>> discoveries) {
+    discoveries.stream().filter(d -> !d.isDone()).forEach(d -> {
       try {
-        final HttpResponse<InputStream> response = httpClientTrustingAnySslContext().send(toUrl(discoveryUrl)
-            .timeout(Duration.of(2, SECONDS))
-            .build(), ofInputStream());
-        if (response.statusCode() != OK.getStatusCode()) {
-          throw new WebApplicationException(response.statusCode());
-        }
-        final WopiDiscovery wopiDiscovery;
-        try (final InputStream body = response.body()) {
-          wopiDiscovery = WopiDiscovery.load(body);
-        }
-        wopiDiscovery.consumeBaseUrlMimeType((n, a) -> {
-          baseUrlByMimeTypes.put(n, a.getUrlsrc());
-          if (isDefined(a.getExt()) && "edit".equals(a.getName())) {
-            baseUrlByExtension.put(a.getExt(), a.getUrlsrc());
+        d.join();
+      } catch (CompletionException | CancellationException e) {
+        logger().debug(() -> format("WOPI client not available: {0}", e.getMessage()));
+      }
+    });
+  }
+
+  /**
+   * Waits for the first of the given discoveries to succeed, or for all of them to fail.
+   * @param discoveries the future discoveries.
+   */
+  private static void awaitFirstDiscovery(
+      final List<CompletableFuture<DiscoverySnapshot>> discoveries) {
+    final CompletableFuture<DiscoverySnapshot> first = new CompletableFuture<>();
+    discoveries.forEach(d -> d.thenAccept(first::complete));
+    CompletableFuture.allOf(discoveries.toArray(new CompletableFuture[0]))
+        .whenComplete((r, e) -> {
+          if (e != null) {
+            logger().debug(() -> format("WOPI client not available: {0}", e.getMessage()));
           }
+          first.complete(null);
         });
-      } catch (Exception e) {
-        logger().error(e);
-        if (e instanceof InterruptedException) {
-          Thread.currentThread().interrupt();
-        }
-        throw new WebApplicationException(e);
+    first.join();
+  }
+
+  /**
+   * Gets the pool of the WOPI client servers, rebuilding it when the configured base URLs have
+   * changed. The already known clients are kept in the new pool.
+   * @return the current {@link WopiClientPool}.
+   */
+  private WopiClientPool getClientPool() {
+    final List<String> baseUrls = getWopiClientBaseUrls();
+    while (true) {
+      final WopiClientPool current = clientPool.get();
+      if (current.baseUrls.equals(baseUrls)) {
+        return current;
+      }
+      final boolean pooled = baseUrls.size() > 1;
+      final Map<String, WopiClient> clients = baseUrls.stream()
+          .collect(toMap(Function.identity(),
+              u -> ofNullable(current.clientsByBaseUrl.get(u))
+                  .filter(c -> c.isPooled() == pooled)
+                  .orElseGet(() -> new WopiClient(u, pooled, discoveryExecutor,
+                      discoveryListener)),
+              (a, b) -> a, LinkedHashMap::new));
+      final WopiClientPool pool = new WopiClientPool(baseUrls, clients);
+      if (clientPool.compareAndSet(current, pool)) {
+        logger().debug(() -> format("WOPI client servers: {0}", baseUrls));
+        return pool;
       }
-      registerSecurityDomains();
-      lastDiscoveryUrl = discoveryUrl;
-      lastDateTimeOfDiscoveryGet = LocalDateTime.now();
     }
   }
 
-  private Optional<String> getClientBaseUrlFor(final WbeFile file) {
+  /**
+   * Refreshes the expired discoveries. This is the periodic task of the discovery scheduler, so
+   * the discoveries are most of the time refreshed before any caller sees them expired.
+   */
+  private void refreshExpiredDiscoveries() {
     if (isEnabled()) {
-      discover();
-      final String clientBaseUrl = baseUrlByMimeTypes.get(file.mimeType());
-      if (isDefined(clientBaseUrl)) {
-        return of(clientBaseUrl);
-      }
-      return ofNullable(baseUrlByExtension.get(file.ext()));
-    } else if (!baseUrlByMimeTypes.isEmpty()){
+      clientPool.get().clients.forEach(c -> {
+        try {
+          c.refreshExpiredDiscovery();
+        } catch (Exception e) {
+          logger().error(e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Probes the health of the WOPI client servers whose last probe is older than the probe
+   * period. This is a periodic task of the discovery scheduler, which also forgets the expired
+   * edition affinities. The probes are performed by their own pool of threads, so the probes of
+   * unresponsive servers delay neither the discoveries nor the other scheduled tasks.
+   */
+  private void probeClients() {
+    editionAffinities.values().removeIf(EditionAffinity::isExpired);
+    final WopiConfiguration configuration = configuration();
+    final Duration period = configuration.getHealthPeriod();
+    if (!configuration.isEnabled() || period.isZero()) {
+      return;
+    }
+    clientPool.get().clients.stream()
+        .filter(c -> c.getHealth().isProbeDue(period))
+        .forEach(c -> probeExecutor.execute(() -> c.getHealth()
+            .probe(httpClientTrustingAnySslContext(),
+                configuration.getClientHealthUrl(c.getBaseUrl()), HEALTH_PROBE_TIMEOUT)));
+  }
+
+  private void discovered(final WopiClient client, final DiscoveryChanges changes) {
+    if (changes.isImpactingEditions()) {
+      logger().debug(() -> format("WOPI client {0} capabilities changed for mime-types {1} and " +
+          "extensions {2}", client, changes.getMimeTypes(), changes.getExtensions()));
       WbeHostManager.get().clear();
-      logger().debug(() -> format("removing all discovered actions because of WOPI disabling"));
+    } else if (!changes.isEmpty()) {
+      logger().debug(() -> format("WOPI client {0} capabilities added for mime-types {1} and " +
+          "extensions {2}", client, changes.getMimeTypes(), changes.getExtensions()));
+    }
+    registerSecurityDomains(client.getBaseUrl());
+  }
+
+  private void startDiscoveryScheduler() {
+    if (!discoverySchedulerStarted.get() && discoverySchedulerStarted.compareAndSet(false, true)) {
+      final ScheduledExecutorService scheduler = executors.getScheduler();
+      scheduler.scheduleWithFixedDelay(this::refreshExpiredDiscoveries, 1, 1, MINUTES);
+      scheduler.scheduleWithFixedDelay(this::probeClients, 5, 5, SECONDS);
     }
-    return empty();
   }
 
-  private void registerSecurityDomains() {
-    getWopiClientBaseUrl().stream()
-        .flatMap(u -> Stream.of(u, u.replaceFirst("^http", "ws")))
+  /**
+   * Registers the given WOPI client base URL into the CSP and CORS rules. A base URL is
+   * registered only once.
+   * @param baseUrl the base URL of a WOPI client server.
+   */
+  private void registerSecurityDomains(final String baseUrl) {
+    Stream.of(baseUrl, baseUrl.replaceFirst("^http", "ws"))
+        .filter(registeredSecurityDomains::add)
         .forEach(u -> {
           final SecuritySettings.Registration registration = SecuritySettings.registration();
           registration.registerDefaultSourceInCSP(u);
@@ -171,4 +492,40 @@ public class WopiClientManager implements WbeClientManager {
         });
   }
 
+  /**
+   * The WOPI client server on which a file has been lastly opened.
+   */
+  private static class EditionAffinity {
+    private final WopiClient client;
+    private final Instant expiration;
+
+    private EditionAffinity(final WopiClient client) {
+      this.client = client;
+      this.expiration = Instant.now().plus(EDITION_AFFINITY_TIME_TO_LIVE);
+    }
+
+    private boolean isExpired() {
+      return !expiration.isAfter(Instant.now());
+    }
+  }
+
+  /**
+   * An immutable pool of WOPI client servers with the consistent hash ring distributing the
+   * files over them.
+   */
+  private static class WopiClientPool {
+    private final List<String> baseUrls;
+    private final Map<String, WopiClient> clientsByBaseUrl;
+    private final List<WopiClient> clients;
+    private final ConsistentHashRing<WopiClient> ring;
+
+    private WopiClientPool(final List<String> baseUrls,
+        final Map<String, WopiClient> clientsByBaseUrl) {
+      this.baseUrls = List.copyOf(baseUrls);
+      this.clientsByBaseUrl = clientsByBaseUrl;
+      this.clients = List.copyOf(clientsByBaseUrl.values());
+      this.ring = new ConsistentHashRing<>(clients, WopiClient::getBaseUrl,
+          VIRTUAL_NODES_BY_CLIENT);
+    }
+  }
 }
@@ -42,10 +42,13 @@ import org.silverpeas.core.wbe.WbeUser;
 public class WopiEdition extends WbeEdition {
 
   private final String clientBaseUrl;
+  private final String clientServerBaseUrl;
 
-  protected WopiEdition(final WbeFile file, final WbeUser user, final String clientBaseUrl) {
+  protected WopiEdition(final WbeFile file, final WbeUser user, final String clientBaseUrl,
+      final String clientServerBaseUrl) {
     super(file, user);
     this.clientBaseUrl = clientBaseUrl;
+    this.clientServerBaseUrl = clientServerBaseUrl;
   }
 
   /**
@@ -56,4 +59,13 @@ public class WopiEdition extends WbeEdition {
   String getClientBaseUrl() {
     return clientBaseUrl;
   }
+
+  /**
+   * The client server base URL is the configured base URL of the WOPI client server which has
+   * been chosen to take in charge the edition.
+   * @return an URL as string.
+   */
+  String getClientServerBaseUrl() {
+    return clientServerBaseUrl;
+  }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.annotation.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * The executors of the background tasks of the WOPI host.
+ * <p>
+ *   All the threads are created by the managed thread factory of the application server, so
+ *   they are known and managed by it. The delayed and periodic tasks of all the WOPI services
+ *   share a same scheduler, which is expected to run short tasks only. The treatments which can
+ *   take time get a dedicated bounded pool (see {@link #newPool(int)}), so they cannot delay the
+ *   scheduled tasks.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiExecutors {
+
+  private static final int SCHEDULER_THREADS = 4;
+
+  @Resource(lookup = "java:comp/DefaultManagedThreadFactory")
+  private ManagedThreadFactory managedThreadFactory;
+
+  private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+  private volatile ScheduledExecutorService scheduler;
+
+  protected WopiExecutors() {
+    // managed by the container
+  }
+
+  /**
+   * Gets the scheduler shared by the WOPI services.
+   * @return a {@link ScheduledExecutorService} instance.
+   */
+  public ScheduledExecutorService getScheduler() {
+    ScheduledExecutorService current = scheduler;
+    if (current == null) {
+      synchronized (this) {
+        current = scheduler;
+        if (current == null) {
+          final ScheduledThreadPoolExecutor executor =
+              new ScheduledThreadPoolExecutor(SCHEDULER_THREADS, threadFactory());
+          executor.setRemoveOnCancelPolicy(true);
+          executors.add(executor);
+          current = executor;
+          scheduler = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Creates a new pool of the given number of threads. The idle threads are released and the
+   * pool is shut down with the WOPI services.
+   * @param threads the maximum number of threads of the pool.
+   * @return an {@link ExecutorService} instance.
+   */
+  public ExecutorService newPool(final int threads) {
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, SECONDS,
+        new LinkedBlockingQueue<>(), threadFactory());
+    executor.allowCoreThreadTimeOut(true);
+    executors.add(executor);
+    return executor;
+  }
+
+  @PreDestroy
+  protected void shutdown() {
+    executors.forEach(ExecutorService::shutdownNow);
+    executors.clear();
+  }
+
+  /**
+   * Gets the factory of the threads, the default one when not run by an application server.
+   */
+  private ThreadFactory threadFactory() {
+    return managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.util.ByteRange;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content of a file sent to a WOPI client server.
+ * <p>
+ *   The content is streamed from {@link WbeFile#loadInto(OutputStream)}. When only a range of
+ *   it is asked, the bytes out of the range are skipped while streaming.
+ * </p>
+ * @author silveryocha
+ */
+class WopiFileContent {
+
+  private final WbeFile file;
+  private final long length;
+
+  private WopiFileContent(final WbeFile file, final long length) {
+    this.file = file;
+    this.length = length;
+  }
+
+  /**
+   * Gets the content of the given file.
+   * @param file the file to send.
+   * @return a {@link WopiFileContent} instance.
+   */
+  static WopiFileContent of(final WbeFile file) {
+    return new WopiFileContent(file, file.size());
+  }
+
+  /**
+   * Gets the length of the content.
+   * @return a number of bytes.
+   */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the streaming of the given range of the content.
+   * @param range the range of bytes to send.
+   * @return a {@link StreamingOutput} instance.
+   */
+  StreamingOutput write(final ByteRange range) {
+    if (range.getFirst() == 0 && range.getLength() == length) {
+      return file::loadInto;
+    }
+    return o -> file.loadInto(new RangeOutputStream(o, range));
+  }
+
+  /**
+   * Gets the streaming of the whole content encoded with gzip.
+   * @return a {@link StreamingOutput} instance.
+   */
+  StreamingOutput writeGzipped() {
+    final StreamingOutput plain = write(ByteRange.all(length));
+    return o -> {
+      // closing the gzip stream releases its deflater but the response stream is left open
+      try (final GZIPOutputStream gzip = new GZIPOutputStream(new UncloseableOutputStream(o),
+          8192)) {
+        plain.write(new UncloseableOutputStream(gzip));
+      }
+    };
+  }
+
+  /**
+   * An output stream which is only flushed when it is closed, leaving the wrapped stream open.
+   */
+  private static class UncloseableOutputStream extends FilterOutputStream {
+
+    private UncloseableOutputStream(final OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  /**
+   * An output stream writing only the bytes of a range of the content written into it.
+   */
+  private static class RangeOutputStream extends FilterOutputStream {
+    private final long first;
+    private final long end;
+    private long position = 0;
+
+    private RangeOutputStream(final OutputStream out, final ByteRange range) {
+      super(out);
+      this.first = range.getFirst();
+      this.end = range.getLast() + 1;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      if (position >= first && position < end) {
+        out.write(b);
+      }
+      position++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      final long from = Math.max(position, first);
+      final long to = Math.min(position + len, end);
+      if (from < to) {
+        out.write(b, off + (int) (from - position), (int) (to - from));
+      }
+      position += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.util.Digests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.text.MessageFormat.format;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+
+/**
+ * The SHA-256 digests of the file contents lastly saved through WOPI.
+ * <p>
+ *   The WOPI clients save the documents periodically and when the editor is closed, often with
+ *   an unchanged content. Such a save is detected by comparing the digest of the received
+ *   content with the one of the current content, so it is not committed to the storage, which
+ *   would create a new version and trigger the indexation of the file for nothing.
+ * </p>
+ * <p>
+ *   The WBE API does not provide any metadata storage, so the digests are kept in memory along
+ *   with the last modification date of the file they were computed for. A digest is only trusted
+ *   as long as the file has not been modified by another way. Otherwise, or if the digest is not
+ *   known, the current content is hashed again, unless its size already differs from the received
+ *   one.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiFileContentHashes {
+
+  private static final int MAX_ENTRIES = 10000;
+
+  private final Map<String, ContentHash> hashes =
+      Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ContentHash> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      });
+
+  protected WopiFileContentHashes() {
+  }
+
+  /**
+   * Indicates if the received content is the same as the current content of the given file.
+   * @param file the saved file.
+   * @param upload the content received from the WOPI client.
+   * @return true if the content of the file is unchanged, false otherwise.
+   */
+  protected boolean isUnchanged(final WbeFile file, final WopiFileUpload upload) {
+    final OffsetDateTime lastModificationDate = file.lastModificationDate();
+    final ContentHash known = hashes.get(file.id());
+    final String current;
+    if (known != null && known.lastModificationDate.isEqual(lastModificationDate)) {
+      current = known.digest;
+    } else if (file.size() == upload.getSize()) {
+      current = digestOf(file);
+      if (current != null) {
+        hashes.put(file.id(), new ContentHash(lastModificationDate, current));
+      }
+    } else {
+      current = null;
+    }
+    return upload.getDigest().equals(current);
+  }
+
+  /**
+   * Registers the digest of the content just saved into the given file.
+   * @param file the saved file.
+   * @param upload the content received from the WOPI client.
+   */
+  protected void saved(final WbeFile file, final WopiFileUpload upload) {
+    hashes.put(file.id(), new ContentHash(file.lastModificationDate(), upload.getDigest()));
+  }
+
+  private static String digestOf(final WbeFile file) {
+    final MessageDigest digest = Digests.sha256();
+    try (final OutputStream output =
+             new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      file.loadInto(output);
+      return Digests.toHex(digest.digest());
+    } catch (IOException e) {
+      logger().debug(() -> format("content of {0} not hashed: {1}", file, e.getMessage()));
+      return null;
+    }
+  }
+
+  /**
+   * The digest of a content, computed for a given last modification date of the file.
+   */
+  private static class ContentHash {
+    private final OffsetDateTime lastModificationDate;
+    private final String digest;
+
+    private ContentHash(final OffsetDateTime lastModificationDate, final String digest) {
+      this.lastModificationDate = lastModificationDate;
+      this.digest = digest;
+    }
+  }
+}
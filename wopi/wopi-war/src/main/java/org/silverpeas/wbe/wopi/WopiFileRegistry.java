@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The files of Silverpeas lastly accessed through WOPI, by identifier.
+ * <p>
+ *   The file given to a request is wrapped for the request only. So the treatments performed out
+ *   of the requests, like the expiration of the locks or the notification of the editors of a
+ *   file, keep the identifier of the file and get the file from this registry when they are
+ *   performed: they work on the last instance of the file accessed through WOPI.
+ * </p>
+ * <p>
+ *   The number of registered files is bounded, the least recently accessed files being removed
+ *   first.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiFileRegistry {
+
+  private static final int MAX_FILES = 10000;
+
+  private final Map<String, WbeFile> files =
+      Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, WbeFile> eldest) {
+          return size() > MAX_FILES;
+        }
+      });
+
+  protected WopiFileRegistry() {
+  }
+
+  /**
+   * Registers the given file as the last accessed instance of it.
+   * @param file a file, which is unwrapped if it is a {@link WopiFileWrapper}.
+   */
+  protected void register(final WbeFile file) {
+    final WbeFile unwrapped = WopiFileWrapper.unwrap(file);
+    files.put(unwrapped.id(), unwrapped);
+  }
+
+  /**
+   * Gets the last accessed instance of the file of given identifier.
+   * @param fileId the identifier of a file.
+   * @return the optional file wrapped for the caller, empty if the file has not been accessed
+   * lately.
+   */
+  protected Optional<WbeFile> get(final String fileId) {
+    return Optional.ofNullable(files.get(fileId)).map(WopiFileWrapper::new);
+  }
+}
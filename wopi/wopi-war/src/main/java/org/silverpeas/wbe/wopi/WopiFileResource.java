@@ -28,6 +28,7 @@ import org.silverpeas.core.admin.user.model.User;
 import org.silverpeas.core.annotation.WebService;
 import org.silverpeas.core.util.JSONCodec;
 import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.core.wbe.WbeHostManager;
 import org.silverpeas.core.wbe.WbeUser;
 import org.silverpeas.core.web.rs.annotation.Authenticated;
 import org.silverpeas.core.webapi.wbe.AbstractWbeFileResource;
@@ -35,6 +36,10 @@ import org.silverpeas.core.webapi.wbe.WbeFileEditionContext;
 import org.silverpeas.core.webapi.wbe.WbeFileWrapper;
 import org.silverpeas.core.webapi.wbe.WbeResponseError;
 import org.silverpeas.kernel.util.StringUtil;
+import org.silverpeas.wbe.wopi.lock.WopiLock;
+import org.silverpeas.wbe.wopi.util.ByteRange;
+import org.silverpeas.wbe.wopi.util.ContentCoding;
+import org.silverpeas.wbe.wopi.util.WopiConfiguration;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
@@ -49,14 +54,22 @@ import java.io.IOException;
 import java.time.OffsetDateTime;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.text.MessageFormat.format;
 import static java.time.OffsetDateTime.parse;
 import static java.util.Optional.*;
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
+import static javax.ws.rs.core.HttpHeaders.VARY;
 import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
+import static javax.ws.rs.core.Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE;
+import static org.apache.commons.lang3.StringUtils.EMPTY;
 import static org.silverpeas.core.date.TemporalFormatter.toIso8601;
 import static org.silverpeas.core.util.URLUtil.getFullApplicationURL;
 import static org.silverpeas.core.util.URLUtil.getServerURL;
@@ -77,12 +90,30 @@ public class WopiFileResource extends AbstractWbeFileResource {
   private static final String WOPI_OVERRIDE_HEADER = "X-WOPI-Override";
   private static final String WOPI_USER_IDS_HEADER = "X-WOPI-ViewUserIds";
   static final String WOPI_LOCK_HEADER = "X-WOPI-Lock";
+  private static final String RANGE_HEADER = "Range";
+  private static final String CONTENT_RANGE_HEADER = "Content-Range";
+  private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
 
   private static final String LAST_MODIFIED_TIME_FIELD = "LastModifiedTime";
 
   @Inject
   private org.silverpeas.wbe.wopi.WopiLockResponseManager lockManager;
 
+  @Inject
+  private WopiLockTable lockTable;
+
+  @Inject
+  private WopiFileSaveManager saveManager;
+
+  @Inject
+  private WopiPostSavePipeline postSavePipeline;
+
+  @Inject
+  private WopiPresenceRegistry presenceRegistry;
+
+  @Inject
+  private WopiFileRegistry fileRegistry;
+
   /**
    * @see
    * <a href="https://wopi.readthedocs.io/projects/wopirest/en/latest/endpoints.html#files-endpoint"> WOPI spec,
@@ -93,10 +124,12 @@ public class WopiFileResource extends AbstractWbeFileResource {
     return process(() -> {
       final WbeFileEditionContext context = getEditionContext();
       final WbeFile file = context.getFile();
+      flushPendingSave(file);
       final WbeUser user = context.getUser();
+      final User spUser = user.asSilverpeas();
+      final boolean canBeModifiedBy = file.canBeModifiedBy(spUser);
+      final boolean lockEnabled = lockManager.isEnabled();
       final String json = JSONCodec.encodeObject(o -> {
-        final User spUser = user.asSilverpeas();
-        final boolean canBeModifiedBy = file.canBeModifiedBy(spUser);
         final boolean webViewOnly = false;
         final HttpServletRequest request = getSilverpeasContext().getRequest();
         return o
@@ -111,10 +144,10 @@ public class WopiFileResource extends AbstractWbeFileResource {
             .put("SupportsContainers", false)
             .put("SupportsDeleteFile", false)
             .put("SupportsEcosystem", false)
-            .put("SupportsExtendedLockLength", false)
+            .put("SupportsExtendedLockLength", lockEnabled)
             .put("SupportsFolders", false)
-            .put("SupportsGetLock", lockManager.isEnabled())
-            .put("SupportsLocks", lockManager.isEnabled())
+            .put("SupportsGetLock", lockEnabled)
+            .put("SupportsLocks", lockEnabled)
             .put("SupportsRename", false)
             .put("SupportsUpdate", false)
             .put("SupportsUserInfo", false)
@@ -137,7 +170,16 @@ public class WopiFileResource extends AbstractWbeFileResource {
             .put("UserCanWrite", canBeModifiedBy);
         }
       );
-      return Response.ok().type(MediaType.APPLICATION_JSON).entity(json).build();
+      // the tag covers all the data of the response (user, permissions, names, avatar, ...)
+      final WopiFileVersion version = WopiFileVersion.of(file, json);
+      if (version.isNotModifiedFor(getSilverpeasContext().getRequest())) {
+        return Response.notModified(version.getEntityTag()).build();
+      }
+      return Response.ok()
+          .type(MediaType.APPLICATION_JSON)
+          .tag(version.getEntityTag())
+          .entity(json)
+          .build();
     });
   }
 
@@ -159,9 +201,13 @@ public class WopiFileResource extends AbstractWbeFileResource {
             .filter(StringUtil::isDefined)
             .map(String::trim)
             .collect(Collectors.toSet());
-        getHostManager().notifyEditionWith(file, userIds);
+        presenceRegistry.update(file, userIds, getHostManager()::notifyEditionWith);
         response = of(Response.ok().build());
       } else if (action.contains("LOCK")) {
+        if ("LOCK".equals(action) || "UNLOCK".equals(action)) {
+          // the pending save is committed against the lock it has been verified with
+          flushPendingSave(file);
+        }
         response = lockManager.manage(request, action, file);
       } else {
         response = empty();
@@ -180,8 +226,53 @@ public class WopiFileResource extends AbstractWbeFileResource {
   public Response sendFileContentData() {
     return process(() -> {
       final WbeFileEditionContext context = getEditionContext();
-      final StreamingOutput streamingOutput = o -> context.getFile().loadInto(o);
-      return Response.ok(streamingOutput, APPLICATION_OCTET_STREAM).build();
+      final HttpServletRequest request = getSilverpeasContext().getRequest();
+      final WbeFile file = context.getFile();
+      flushPendingSave(file);
+      final WopiFileContent content = WopiFileContent.of(file);
+      final WopiConfiguration configuration = configuration();
+      final boolean negotiable = configuration.isContentCompressionEnabled() &&
+          content.getLength() >= configuration.getContentCompressionMinSize() &&
+          ContentCoding.isCompressible(file.mimeType());
+      final boolean gzipped = negotiable && !isDefined(request.getHeader(RANGE_HEADER)) &&
+          ContentCoding.isGzipAccepted(request.getHeader(ACCEPT_ENCODING));
+      final WopiFileVersion version =
+          WopiFileVersion.of(file).encodedWith(gzipped ? ContentCoding.GZIP : null);
+      if (version.isNotModifiedFor(request)) {
+        return Response.notModified(version.getEntityTag()).build();
+      }
+      if (gzipped) {
+        return Response.ok(content.writeGzipped(), APPLICATION_OCTET_STREAM)
+            .header(CONTENT_ENCODING, ContentCoding.GZIP)
+            .header(VARY, ACCEPT_ENCODING)
+            .tag(version.getEntityTag())
+            .lastModified(version.getLastModified())
+            .build();
+      }
+      final long length = content.getLength();
+      final Optional<ByteRange> range;
+      try {
+        range = ByteRange.parse(version.isRangeApplicableFor(request) ?
+            request.getHeader(RANGE_HEADER) : null, length);
+      } catch (IllegalArgumentException e) {
+        throw new WbeResponseError(Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+            .header(CONTENT_RANGE_HEADER, "bytes */" + length)
+            .build());
+      }
+      final ByteRange bytes = range.orElseGet(() -> ByteRange.all(length));
+      final StreamingOutput streamingOutput = content.write(bytes);
+      return range
+          .map(r -> Response.status(PARTIAL_CONTENT)
+              .header(CONTENT_RANGE_HEADER, r.toContentRange(length))
+              .entity(streamingOutput)
+              .type(APPLICATION_OCTET_STREAM))
+          .orElseGet(() -> Response.ok(streamingOutput, APPLICATION_OCTET_STREAM))
+          .header(ACCEPT_RANGES_HEADER, "bytes")
+          .header(CONTENT_LENGTH, bytes.getLength())
+          .header(VARY, negotiable ? ACCEPT_ENCODING : null)
+          .tag(version.getEntityTag())
+          .lastModified(version.getLastModified())
+          .build();
     });
   }
 
@@ -197,45 +288,105 @@ public class WopiFileResource extends AbstractWbeFileResource {
       final HttpServletRequest request = getSilverpeasContext().getRequest();
       final WbeFileEditionContext context = getEditionContext();
       final WbeFile file = context.getFile();
-      of(isLockCapabilityEnabled())
-          .filter(b -> b)
-          .map(b -> request.getHeader(WOPI_LOCK_HEADER))
-          .filter(l -> (isDefined(l) && !file.lock().exists()) || !file.lock().id().equals(l))
-          .ifPresent(l -> {
-            logger().debug(() -> format("WRITE CONFLICT because of not corresponding LOCK {0} on file {1}", l, file));
-            throw new WbeResponseError(Response.status(CONFLICT)
-                .header(WOPI_LOCK_HEADER, file.lock().id())
-                .build());
-          });
-      getTimestampVerificationElements().ifPresent(e -> {
-        final String timestampHeaderValue = request.getHeader(e.getFirst());
-        if (isDefined(timestampHeaderValue)) {
-          final OffsetDateTime timestampToVerify = parse(timestampHeaderValue);
-          logger().debug(() -> format("timestamp {0} verified on file {1}", timestampToVerify, file));
-          if (!timestampToVerify.isEqual(file.lastModificationDate())) {
-            logger().debug(() -> format("WRITE CONFLICT because of not corresponding timestamp {0} on file {1}", timestampToVerify, file));
-            throw new WbeResponseError(Response.status(CONFLICT)
-                .type(MediaType.APPLICATION_JSON).entity(e.getSecond())
-                .build());
-          }
-        } else {
-          logger().debug(() -> format("no timestamp verification on file {0}", file));
-        }
-      });
-      try {
-        file.updateFrom(getSilverpeasContext().getRequest().getInputStream());
+      final WopiConfiguration configuration = configuration();
+      final boolean exitSave = configuration.getExitFieldNameDetection()
+          .filter(f -> getBooleanValue(request.getHeader(f)))
+          .isPresent();
+      // a conflicting save is rejected before receiving its content
+      verifyNoWriteConflict(request, file, configuration);
+      final OffsetDateTime lastModifiedTime;
+      try (final WopiFileUpload upload =
+               WopiFileUpload.receive(request, configuration.getPutFileMaxSize());
+           final WopiLockTable.Fence ignored = lockTable.fence(file)) {
+        // the lock or the file may have changed while receiving: the content is committed
+        // against the lock held at the time of this last verification
+        verifyNoWriteConflict(request, file, configuration);
+        lastModifiedTime = saveManager.save(file, context.getUser().asSilverpeas(), upload,
+            getVerifiedLockId(request, configuration), exitSave);
       } catch (IOException e) {
         throw new WebApplicationException(e, Response.Status.NOT_FOUND);
       }
-      getExitFieldNameDetection()
-          .filter(f -> getBooleanValue(request.getHeader(f)))
-          .ifPresent(f -> getHostManager().revokeFile(file));
+      if (exitSave) {
+        final WbeHostManager hostManager = getHostManager();
+        // the users of the file are notified again once the host manager has cleared them
+        final Consumer<WbeFile> revocation = f -> {
+          hostManager.revokeFile(f);
+          presenceRegistry.reset(f.id());
+        };
+        if (!postSavePipeline.submit(file.id(), "file revocation", context.getUser().asSilverpeas(),
+            revocation)) {
+          revocation.accept(file);
+        }
+      }
       final String json = JSONCodec.encodeObject(
-          o -> o.put(LAST_MODIFIED_TIME_FIELD, formatLastModifiedTime(file)));
+          o -> o.put(LAST_MODIFIED_TIME_FIELD, formatLastModifiedTime(lastModifiedTime)));
       return Response.ok().type(MediaType.APPLICATION_JSON).entity(json).build();
     });
   }
 
+  /**
+   * Commits the pending save of the given file if any, so the request works on the last saved
+   * content.
+   * @param file the file read or unlocked by the current request.
+   * @throws WebApplicationException with a <code>500</code> response if the pending save cannot
+   * be committed.
+   */
+  private void flushPendingSave(final WbeFile file) {
+    try {
+      saveManager.flush(file);
+    } catch (IOException e) {
+      throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  /**
+   * Verifies that the saving of the given file by the WOPI client is not in conflict with the
+   * current lock or the last modification of the file.
+   * @param request the PutFile request.
+   * @param file the saved file.
+   * @param configuration the current WOPI configuration.
+   * @throws WbeResponseError with a <code>409</code> response in case of conflict.
+   */
+  private void verifyNoWriteConflict(final HttpServletRequest request, final WbeFile file,
+      final WopiConfiguration configuration) {
+    final String lockId = getVerifiedLockId(request, configuration);
+    if (lockId != null && !lockTable.isWritableWith(file, lockId)) {
+      logger().debug(() -> format("WRITE CONFLICT because of not corresponding LOCK {0} on file {1}", lockId, file));
+      throw new WbeResponseError(Response.status(CONFLICT)
+          .header(WOPI_LOCK_HEADER,
+              lockTable.getLock(file).map(WopiLock::getLockId).orElse(EMPTY))
+          .build());
+    }
+    configuration.getTimestampVerificationElements().ifPresent(e -> {
+      final String timestampHeaderValue = request.getHeader(e.getFirst());
+      if (isDefined(timestampHeaderValue)) {
+        final OffsetDateTime timestampToVerify = parse(timestampHeaderValue);
+        logger().debug(() -> format("timestamp {0} verified on file {1}", timestampToVerify, file));
+        if (!timestampToVerify.isEqual(file.lastModificationDate()) &&
+            !saveManager.isAcknowledged(file, timestampToVerify)) {
+          logger().debug(() -> format("WRITE CONFLICT because of not corresponding timestamp {0} on file {1}", timestampToVerify, file));
+          throw new WbeResponseError(Response.status(CONFLICT)
+              .type(MediaType.APPLICATION_JSON).entity(e.getSecond())
+              .build());
+        }
+      } else {
+        logger().debug(() -> format("no timestamp verification on file {0}", file));
+      }
+    });
+  }
+
+  /**
+   * Gets the identifier of the lock against which the saving of a file is verified.
+   * @param request the PutFile request.
+   * @param configuration the current WOPI configuration.
+   * @return the identifier of the lock sent by the WOPI client, null if the saving is not
+   * verified against the lock of the file.
+   */
+  private static String getVerifiedLockId(final HttpServletRequest request,
+      final WopiConfiguration configuration) {
+    return configuration.isLockCapabilityEnabled() ? request.getHeader(WOPI_LOCK_HEADER) : null;
+  }
+
   /**
    * Formats for 'LastModifiedTime' field which MUST contains the ISO8601 round-trip time format
    * indicating the new/updated file's modified time in storage after successful save.
@@ -247,11 +398,16 @@ public class WopiFileResource extends AbstractWbeFileResource {
    * @return an ISO8601 formatted string.
    */
   private String formatLastModifiedTime(final WbeFile file) {
-    return toIso8601(file.lastModificationDate(), true).replace("Z", ".000000Z");
+    return formatLastModifiedTime(file.lastModificationDate());
+  }
+
+  private String formatLastModifiedTime(final OffsetDateTime lastModifiedTime) {
+    return toIso8601(lastModifiedTime, true).replace("Z", ".000000Z");
   }
 
   @Override
   protected WbeFileWrapper wrapWbeFile(final WbeFile file) {
+    fileRegistry.register(file);
     return new org.silverpeas.wbe.wopi.WopiFileWrapper(file);
   }
 }
@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.admin.user.model.User;
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.util.WopiConfiguration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+
+import static java.text.MessageFormat.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+import static org.silverpeas.wbe.wopi.util.WopiSettings.configuration;
+
+/**
+ * The manager of the saves of the file contents received from the WOPI client servers.
+ * <p>
+ *   By default, each save is committed to the storage of the file at once. When the write-behind
+ *   is enabled (see {@link WopiConfiguration#getWriteBehindQuietPeriod()}), a save is only kept
+ *   pending and acknowledged with its own modification time. It is committed once no other save
+ *   of the same file has been received during the quiet period, so a burst of autosaves of a
+ *   busy document results in a single write to the storage. The pending save of a file is also
+ *   committed as soon as the file is read again, unlocked or saved at the closing of an editor.
+ * </p>
+ * <p>
+ *   A pending save is committed out of the request which has received it. So it keeps the file of
+ *   Silverpeas unwrapped from the request and the user who has saved it, on behalf of whom the
+ *   commit is performed. A commit which fails is retried, and the pending save is kept meanwhile:
+ *   a request needing the saved content gets an error instead of the previous content.
+ * </p>
+ * <p>
+ *   A save verified against the WOPI lock of its file is committed while holding the fence of
+ *   the file (see {@link WopiLockTable#fence(String)}), and only if the file is still locked with
+ *   the same lock. Otherwise, the pending save is dropped as the edition session it belongs to
+ *   is over. Its content is kept on disk and its path logged.
+ * </p>
+ * <p>
+ *   The number of pending saves is bounded. Beyond it, the saves are committed at once. The
+ *   commits of the pending saves are triggered by the shared scheduler, but performed by a
+ *   dedicated pool (see {@link WopiConfiguration#getWriteBehindThreads()}), as they write to
+ *   the storage.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiFileSaveManager {
+
+  private static final int LOCK_STRIPES = 64;
+  private static final int MAX_ACKNOWLEDGEMENTS = 10000;
+  private static final int MAX_COMMIT_ATTEMPTS = 12;
+  private static final Duration MIN_RETRY_DELAY = Duration.ofSeconds(5);
+
+  private final Map<String, PendingSave> pendingSaves = new ConcurrentHashMap<>();
+  private final Map<String, Acknowledgement> acknowledgements =
+      Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Acknowledgement> eldest) {
+          return size() > MAX_ACKNOWLEDGEMENTS;
+        }
+      });
+  private final Object[] locks = new Object[LOCK_STRIPES];
+  private final Supplier<WriteBehind> writeBehind;
+  private final Clock clock;
+  private ExecutorService committer;
+
+  @Inject
+  private WopiFileContentHashes contentHashes;
+
+  @Inject
+  private WopiExecutors executors;
+
+  @Inject
+  private WopiLockTable lockTable;
+
+  protected WopiFileSaveManager() {
+    this(() -> WriteBehind.of(configuration()), Clock.systemUTC());
+  }
+
+  WopiFileSaveManager(final WopiFileContentHashes contentHashes, final WopiExecutors executors,
+      final WopiLockTable lockTable, final WriteBehind writeBehind, final Clock clock) {
+    this(() -> writeBehind, clock);
+    this.contentHashes = contentHashes;
+    this.executors = executors;
+    this.lockTable = lockTable;
+    this.committer = executors.newPool(1);
+  }
+
+  private WopiFileSaveManager(final Supplier<WriteBehind> writeBehind, final Clock clock) {
+    this.writeBehind = writeBehind;
+    this.clock = clock;
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  @PostConstruct
+  protected void init() {
+    committer = executors.newPool(configuration().getWriteBehindThreads());
+  }
+
+  /**
+   * Saves the given content into the given file.
+   * @param file the saved file.
+   * @param requester the user saving the file.
+   * @param upload the content received from the WOPI client.
+   * @param lockId the identifier of the lock against which the save has been verified, null if
+   * it has not been verified against any lock.
+   * @param immediate true to commit the content at once, even if the write-behind is enabled.
+   * @return the modification time of the file to acknowledge to the WOPI client.
+   * @throws IOException if the content cannot be committed.
+   */
+  protected OffsetDateTime save(final WbeFile file, final User requester,
+      final WopiFileUpload upload, final String lockId, final boolean immediate)
+      throws IOException {
+    final WriteBehind policy = writeBehind.get();
+    final String fileId = file.id();
+    synchronized (lockOf(fileId)) {
+      if (!immediate && policy.isEnabled() &&
+          (pendingSaves.containsKey(fileId) || pendingSaves.size() < policy.maxPending)) {
+        return pend(file, requester, upload, lockId, policy);
+      }
+      // the pending save is replaced by this one only once this one committed
+      commit(file, upload);
+      discard(pendingSaves.remove(fileId));
+      acknowledgements.remove(fileId);
+    }
+    return file.lastModificationDate();
+  }
+
+  /**
+   * Commits at once the pending save of the given file if any.
+   * @param file a file read or unlocked by the current request.
+   * @throws IOException if the pending save cannot be committed. It is then kept pending.
+   */
+  protected void flush(final WbeFile file) throws IOException {
+    if (!pendingSaves.isEmpty() && commitPending(file.id(), null) &&
+        file instanceof WopiFileWrapper) {
+      // the metadata may have been loaded before the commit
+      ((WopiFileWrapper) file).refresh();
+    }
+  }
+
+  /**
+   * Indicates if the given modification time is the last one acknowledged to a WOPI client for
+   * the given file, and if the file has not been modified by another way since.
+   * @param file a file.
+   * @param modificationTime a modification time sent back by a WOPI client.
+   * @return true if the modification time is the acknowledged one, false otherwise.
+   */
+  protected boolean isAcknowledged(final WbeFile file, final OffsetDateTime modificationTime) {
+    final PendingSave pending = pendingSaves.get(file.id());
+    if (pending != null) {
+      return pending.acknowledgedTime.isEqual(modificationTime);
+    }
+    final Acknowledgement acknowledgement = acknowledgements.get(file.id());
+    return acknowledgement != null && acknowledgement.time.isEqual(modificationTime) &&
+        acknowledgement.storedTime.isEqual(file.lastModificationDate());
+  }
+
+  @PreDestroy
+  protected void shutdown() {
+    new ArrayList<>(pendingSaves.keySet()).forEach(fileId -> {
+      try {
+        commitPending(fileId, null);
+      } catch (IOException | RuntimeException e) {
+        giveUp(fileId, e);
+      }
+    });
+  }
+
+  private OffsetDateTime pend(final WbeFile file, final User requester,
+      final WopiFileUpload upload, final String lockId, final WriteBehind policy) {
+    final String fileId = file.id();
+    final PendingSave previous = pendingSaves.get(fileId);
+    final Instant now = clock.instant();
+    OffsetDateTime acknowledgedTime = OffsetDateTime.now(clock).withNano(0);
+    final Instant firstTime;
+    if (previous != null) {
+      discard(previous);
+      firstTime = previous.firstTime;
+      if (!acknowledgedTime.isAfter(previous.acknowledgedTime)) {
+        acknowledgedTime = previous.acknowledgedTime.plusSeconds(1);
+      }
+    } else {
+      firstTime = now;
+    }
+    final long delay = Math.max(0, Math.min(policy.quietPeriod.toMillis(),
+        Duration.between(now, firstTime.plus(policy.maxDelay)).toMillis()));
+    final PendingSave pending = new PendingSave(WopiFileWrapper.unwrap(file), requester, lockId,
+        upload.transfer(), acknowledgedTime, firstTime, scheduleCommit(fileId, delay));
+    pendingSaves.put(fileId, pending);
+    logger().debug(() -> format("save of file {0} pending for {1} ms", file, delay));
+    return pending.acknowledgedTime;
+  }
+
+  /**
+   * Commits the pending save of the file of given identifier if any.
+   * @param fileId the identifier of a file.
+   * @param scheduled the scheduled commit performing this commit, null to commit at once the
+   * pending save whatever its scheduled commit. A scheduled commit of a pending save which has
+   * been replaced meanwhile does nothing.
+   * @return true if a pending save has been committed, false otherwise.
+   * @throws IOException if the commit fails. The pending save is then kept and retried later.
+   */
+  private boolean commitPending(final String fileId, final ScheduledCommit scheduled)
+      throws IOException {
+    // the fence is taken first, as by a PutFile request saving the file
+    try (final WopiLockTable.Fence ignored = lockTable.fence(fileId)) {
+      synchronized (lockOf(fileId)) {
+        return commitPendingFenced(fileId, scheduled);
+      }
+    }
+  }
+
+  private boolean commitPendingFenced(final String fileId, final ScheduledCommit scheduled)
+      throws IOException {
+    final PendingSave pending = pendingSaves.get(fileId);
+    if (pending == null || (scheduled != null && pending.task != scheduled)) {
+      return false;
+    }
+    pending.task.cancel();
+    // the metadata are loaded at the time of the commit, out of any request
+    final WbeFile file = new WopiFileWrapper(pending.file);
+    if (pending.lockId != null && !lockTable.isWritableWith(file, pending.lockId)) {
+      pendingSaves.remove(fileId);
+      logger().warn(() -> format(
+          "pending save of file {0} dropped as its lock has changed, content kept into {1}",
+          file, pending.upload.getPath()));
+      return false;
+    }
+    try {
+      WopiRequester.runAs(pending.requester, () -> commit(file, pending.upload));
+    } catch (IOException | RuntimeException e) {
+      final long delay = Math.max(MIN_RETRY_DELAY.toMillis(),
+          writeBehind.get().quietPeriod.toMillis());
+      pendingSaves.put(fileId, pending.retriedAfter(scheduleCommit(fileId, delay)));
+      throw e;
+    }
+    pendingSaves.remove(fileId);
+    pending.upload.close();
+    acknowledgements.put(fileId,
+        new Acknowledgement(pending.acknowledgedTime, file.lastModificationDate()));
+    return true;
+  }
+
+  private ScheduledCommit scheduleCommit(final String fileId, final long delay) {
+    final ScheduledCommit scheduled = new ScheduledCommit();
+    scheduled.trigger = executors.getScheduler()
+        .schedule(() -> committer.execute(() -> commitScheduled(fileId, scheduled)), delay,
+            MILLISECONDS);
+    return scheduled;
+  }
+
+  private void commitScheduled(final String fileId, final ScheduledCommit scheduled) {
+    try {
+      commitPending(fileId, scheduled);
+    } catch (IOException | RuntimeException e) {
+      final PendingSave pending = pendingSaves.get(fileId);
+      if (pending != null && pending.attempts >= MAX_COMMIT_ATTEMPTS) {
+        giveUp(fileId, e);
+      } else {
+        logger().warn(() -> format("pending save of file {0} failed and will be retried: {1}",
+            fileId, e.getMessage()));
+      }
+    }
+  }
+
+  private void giveUp(final String fileId, final Exception error) {
+    synchronized (lockOf(fileId)) {
+      final PendingSave pending = pendingSaves.remove(fileId);
+      if (pending != null) {
+        pending.task.cancel();
+        // the content is not deleted so it can be recovered by hand
+        logger().error(format("pending save of file {0} not committed, content kept into {1}",
+            pending.file, pending.upload.getPath()), error);
+      }
+    }
+  }
+
+  private void commit(final WbeFile file, final WopiFileUpload upload) throws IOException {
+    if (contentHashes.isUnchanged(file, upload)) {
+      logger().debug(() -> format("unchanged content not saved into file {0}", file));
+      return;
+    }
+    try (final InputStream content = upload.open()) {
+      file.updateFrom(content);
+    }
+    contentHashes.saved(file, upload);
+    logger().debug(() -> format("{0} bytes saved into file {1}", upload.getSize(), file));
+  }
+
+  private static void discard(final PendingSave pending) {
+    if (pending != null) {
+      pending.task.cancel();
+      pending.upload.close();
+    }
+  }
+
+  private Object lockOf(final String fileId) {
+    return locks[Math.floorMod(fileId.hashCode(), LOCK_STRIPES)];
+  }
+
+  /**
+   * The policy of the write-behind of the saves.
+   */
+  static class WriteBehind {
+    private final Duration quietPeriod;
+    private final Duration maxDelay;
+    private final int maxPending;
+
+    WriteBehind(final Duration quietPeriod, final Duration maxDelay, final int maxPending) {
+      this.quietPeriod = quietPeriod;
+      this.maxDelay = maxDelay;
+      this.maxPending = maxPending;
+    }
+
+    private static WriteBehind of(final WopiConfiguration configuration) {
+      return new WriteBehind(configuration.getWriteBehindQuietPeriod(),
+          configuration.getWriteBehindMaxDelay(), configuration.getWriteBehindMaxPending());
+    }
+
+    private boolean isEnabled() {
+      return !quietPeriod.isZero();
+    }
+  }
+
+  /**
+   * A save waiting for the end of the quiet period of its file, with all the data its commit
+   * requires.
+   */
+  private static class PendingSave {
+    private final WbeFile file;
+    private final User requester;
+    private final String lockId;
+    private final WopiFileUpload upload;
+    private final OffsetDateTime acknowledgedTime;
+    private final Instant firstTime;
+    private final ScheduledCommit task;
+    private final int attempts;
+
+    private PendingSave(final WbeFile file, final User requester, final String lockId,
+        final WopiFileUpload upload, final OffsetDateTime acknowledgedTime,
+        final Instant firstTime, final ScheduledCommit task) {
+      this(file, requester, lockId, upload, acknowledgedTime, firstTime, task, 0);
+    }
+
+    private PendingSave(final WbeFile file, final User requester, final String lockId,
+        final WopiFileUpload upload, final OffsetDateTime acknowledgedTime,
+        final Instant firstTime, final ScheduledCommit task, final int attempts) {
+      this.file = file;
+      this.requester = requester;
+      this.lockId = lockId;
+      this.upload = upload;
+      this.acknowledgedTime = acknowledgedTime;
+      this.firstTime = firstTime;
+      this.task = task;
+      this.attempts = attempts;
+    }
+
+    private PendingSave retriedAfter(final ScheduledCommit retry) {
+      return new PendingSave(file, requester, lockId, upload, acknowledgedTime, firstTime, retry,
+          attempts + 1);
+    }
+  }
+
+  /**
+   * The commit of a pending save, triggered by the scheduler at its time and then performed by
+   * the pool of the commits.
+   */
+  private static class ScheduledCommit {
+    private volatile ScheduledFuture<?> trigger;
+
+    private void cancel() {
+      final ScheduledFuture<?> scheduled = trigger;
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * The modification time acknowledged to the WOPI clients for a committed save, with the
+   * modification time of the file in the storage once the save committed.
+   */
+  private static class Acknowledgement {
+    private final OffsetDateTime time;
+    private final OffsetDateTime storedTime;
+
+    private Acknowledgement(final OffsetDateTime time, final OffsetDateTime storedTime) {
+      this.time = time;
+      this.storedTime = storedTime;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.util.file.FileRepositoryManager;
+import org.silverpeas.core.webapi.wbe.WbeResponseError;
+import org.silverpeas.wbe.wopi.util.ContentCoding;
+import org.silverpeas.wbe.wopi.util.Digests;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+import static java.text.MessageFormat.format;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE;
+import static javax.ws.rs.core.Response.Status.UNSUPPORTED_MEDIA_TYPE;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+
+/**
+ * The content of a file saved by a WOPI client server, spooled into a temporary file.
+ * <p>
+ *   The request body is fully received, decoded and verified before the storage of the file is
+ *   updated: a slow client does not hold the storage during the network transfer, and an
+ *   interrupted or oversized upload is rejected without altering the stored file.
+ * </p>
+ * <p>
+ *   The SHA-256 digest of the decoded content is computed while receiving it, so a save of an
+ *   unchanged content can be detected (see {@link WopiFileContentHashes}).
+ * </p>
+ * @author silveryocha
+ */
+class WopiFileUpload implements AutoCloseable {
+
+  private static final int BUFFER_SIZE = 65536;
+
+  private final Path spool;
+  private final long size;
+  private final String digest;
+  private volatile boolean owner = true;
+
+  private WopiFileUpload(final Path spool, final long size, final String digest) {
+    this.spool = spool;
+    this.size = size;
+    this.digest = digest;
+  }
+
+  /**
+   * Receives the body of the given request into a temporary file.
+   * @param request the PutFile request.
+   * @param maxSize the maximum size in bytes of the decoded content.
+   * @return the received {@link WopiFileUpload}, which MUST be closed in order to delete the
+   * temporary file.
+   * @throws WbeResponseError with a <code>413</code> response if the content exceeds the
+   * maximum size, a <code>415</code> one if its coding is not handled or a <code>400</code> one if
+   * it is incomplete.
+   */
+  static WopiFileUpload receive(final HttpServletRequest request, final long maxSize) {
+    final InputStream body;
+    try {
+      body = request.getInputStream();
+    } catch (IOException e) {
+      logger().debug(() -> format("upload not readable: {0}", e.getMessage()));
+      throw new WbeResponseError(Response.status(BAD_REQUEST).build());
+    }
+    return receive(body, request.getContentLengthLong(), request.getHeader(CONTENT_ENCODING), maxSize,
+        Paths.get(FileRepositoryManager.getTemporaryPath()));
+  }
+
+  /**
+   * Receives the given body into a temporary file of the given directory.
+   * @param body the body of the PutFile request.
+   * @param contentLength the length of the body announced by the request, -1 if unknown.
+   * @param contentEncoding the coding of the body, null for the identity one.
+   * @param maxSize the maximum size in bytes of the decoded content.
+   * @param directory the directory of the temporary file.
+   * @return the received {@link WopiFileUpload}, which MUST be closed in order to delete the
+   * temporary file.
+   * @throws WbeResponseError in the same cases as {@link #receive(HttpServletRequest, long)}.
+   */
+  static WopiFileUpload receive(final InputStream body, final long contentLength,
+      final String contentEncoding, final long maxSize, final Path directory) {
+    if (contentLength > maxSize) {
+      throw new WbeResponseError(Response.status(REQUEST_ENTITY_TOO_LARGE).build());
+    }
+    final Path spool;
+    try {
+      spool = Files.createTempFile(directory, "wopi-put-", ".spool");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    boolean received = false;
+    final MessageDigest messageDigest = Digests.sha256();
+    try (final CountingInputStream counted = new CountingInputStream(body);
+         final InputStream content = ContentCoding.decode(counted, contentEncoding);
+         final OutputStream output = new DigestOutputStream(Files.newOutputStream(spool),
+             messageDigest)) {
+      final long size = copy(content, output, maxSize);
+      if (contentLength >= 0 && counted.count != contentLength) {
+        logger().debug(() -> format("incomplete upload: {0} bytes received on {1}", counted.count,
+            contentLength));
+        throw new WbeResponseError(Response.status(BAD_REQUEST).build());
+      }
+      received = true;
+      return new WopiFileUpload(spool, size, Digests.toHex(messageDigest.digest()));
+    } catch (IllegalArgumentException e) {
+      throw new WbeResponseError(Response.status(UNSUPPORTED_MEDIA_TYPE).build());
+    } catch (IOException e) {
+      logger().debug(() -> format("upload interrupted: {0}", e.getMessage()));
+      throw new WbeResponseError(Response.status(BAD_REQUEST).build());
+    } finally {
+      if (!received) {
+        delete(spool);
+      }
+    }
+  }
+
+  /**
+   * Gets the size of the received content.
+   * @return a number of bytes.
+   */
+  long getSize() {
+    return size;
+  }
+
+  /**
+   * Gets the SHA-256 digest of the received content.
+   * @return an hexadecimal string.
+   */
+  String getDigest() {
+    return digest;
+  }
+
+  /**
+   * Gets the path of the temporary file into which the content has been received.
+   * @return a {@link Path} instance.
+   */
+  Path getPath() {
+    return spool;
+  }
+
+  /**
+   * Opens the received content.
+   * @return an {@link InputStream} on the content.
+   * @throws IOException on an I/O error.
+   */
+  InputStream open() throws IOException {
+    return Files.newInputStream(spool);
+  }
+
+  /**
+   * Transfers the received content to a new {@link WopiFileUpload} instance, which is then in
+   * charge of deleting the temporary file when closed. The current instance can still be closed
+   * without effect.
+   * @return the {@link WopiFileUpload} instance owning the received content.
+   */
+  WopiFileUpload transfer() {
+    owner = false;
+    return new WopiFileUpload(spool, size, digest);
+  }
+
+  @Override
+  public void close() {
+    if (owner) {
+      delete(spool);
+    }
+  }
+
+  private static long copy(final InputStream input, final OutputStream output,
+      final long maxSize) throws IOException {
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    long size = 0;
+    int read;
+    while ((read = input.read(buffer)) >= 0) {
+      size += read;
+      if (size > maxSize) {
+        throw new WbeResponseError(Response.status(REQUEST_ENTITY_TOO_LARGE).build());
+      }
+      output.write(buffer, 0, read);
+    }
+    return size;
+  }
+
+  private static void delete(final Path spool) {
+    try {
+      Files.deleteIfExists(spool);
+    } catch (IOException e) {
+      logger().warn(() -> format("temporary file {0} not deleted: {1}", spool, e.getMessage()));
+    }
+  }
+
+  /**
+   * An input stream counting the bytes read from it.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private long count = 0;
+
+    private CountingInputStream(final InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int read = super.read(b, off, len);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
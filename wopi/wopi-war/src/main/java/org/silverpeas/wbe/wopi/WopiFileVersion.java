@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.wbe.WbeFile;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import java.time.Instant;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static javax.ws.rs.core.HttpHeaders.IF_MODIFIED_SINCE;
+import static javax.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static org.silverpeas.kernel.util.StringUtil.isDefined;
+import static org.silverpeas.wbe.wopi.util.Digests.sha256;
+import static org.silverpeas.wbe.wopi.util.Digests.toHex;
+
+/**
+ * The validators of the current version of a file sent to a WOPI client server: a strong entity
+ * tag derived from the version, the modification date and the size of the file and from the other
+ * data of its representation, and its last modification date.
+ * <p>
+ *   They make the GET requests conditional: a WOPI client server asking again for a file it
+ *   already has gets a <code>304 Not Modified</code> response instead of the full file.
+ * </p>
+ * @author silveryocha
+ */
+class WopiFileVersion {
+
+  private static final String IF_RANGE_HEADER = "If-Range";
+
+  private final String tag;
+  private final Instant lastModified;
+
+  private WopiFileVersion(final String tag, final Instant lastModified) {
+    this.tag = tag;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Gets the version of the given file.
+   * @param file a {@link WbeFile} instance (which is indeed into the WOPI context a
+   * {@link WopiFileWrapper} instance, with a last modification date at second precision).
+   * @param variants the other data from which the representation of the file depends, like the
+   * whole JSON representation of the file information sent to a user.
+   * @return a {@link WopiFileVersion} instance.
+   */
+  static WopiFileVersion of(final WbeFile file, final Object... variants) {
+    final Instant lastModified = file.lastModificationDate().toInstant();
+    final String data = Stream.concat(
+        Stream.of(file.id(), file.version(), lastModified.getEpochSecond(), file.size()),
+        Stream.of(variants))
+        .map(String::valueOf)
+        .reduce((a, b) -> a + '\n' + b)
+        .orElse("");
+    // a half digest is long enough to tell the versions of a file apart
+    return new WopiFileVersion(toHex(sha256(data)).substring(0, 32), lastModified);
+  }
+
+  /**
+   * Gets the version of the file sent with the given content coding. Each coding of a content
+   * has its own strong entity tag.
+   * @param coding a content coding, null for the identity one.
+   * @return a {@link WopiFileVersion} instance.
+   */
+  WopiFileVersion encodedWith(final String coding) {
+    return coding == null ? this : new WopiFileVersion(tag + "-" + coding, lastModified);
+  }
+
+  /**
+   * Gets the strong entity tag of the file version.
+   * @return an {@link EntityTag} instance.
+   */
+  EntityTag getEntityTag() {
+    return new EntityTag(tag);
+  }
+
+  /**
+   * Gets the last modification date of the file version.
+   * @return a {@link Date} instance.
+   */
+  Date getLastModified() {
+    return Date.from(lastModified);
+  }
+
+  /**
+   * Indicates if the requester already has this version of the file, according to the
+   * <code>If-None-Match</code> header or, without it, the <code>If-Modified-Since</code> one.
+   * @param request the current request.
+   * @return true if a <code>304 Not Modified</code> response can be sent, false otherwise.
+   */
+  boolean isNotModifiedFor(final HttpServletRequest request) {
+    final String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+    if (isDefined(ifNoneMatch)) {
+      return Stream.of(ifNoneMatch.split(","))
+          .map(String::trim)
+          .map(t -> t.startsWith("W/") ? t.substring(2) : t)
+          .anyMatch(t -> "*".equals(t) || toHeaderValue().equals(t));
+    }
+    final long ifModifiedSince = getDateHeader(request, IF_MODIFIED_SINCE);
+    return ifModifiedSince >= 0 && lastModified.getEpochSecond() <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * Indicates if a range of the file can be sent according to the <code>If-Range</code> header:
+   * without it, or if it matches this version, the range is sent. Otherwise, the whole file has
+   * to be sent.
+   * @param request the current request.
+   * @return true if a range request can be honoured, false otherwise.
+   */
+  boolean isRangeApplicableFor(final HttpServletRequest request) {
+    final String ifRange = request.getHeader(IF_RANGE_HEADER);
+    if (!isDefined(ifRange)) {
+      return true;
+    } else if (ifRange.trim().startsWith("\"")) {
+      return toHeaderValue().equals(ifRange.trim());
+    }
+    return getDateHeader(request, IF_RANGE_HEADER) / 1000 == lastModified.getEpochSecond();
+  }
+
+  private String toHeaderValue() {
+    return '"' + tag + '"';
+  }
+
+  private static long getDateHeader(final HttpServletRequest request, final String name) {
+    try {
+      return request.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+}
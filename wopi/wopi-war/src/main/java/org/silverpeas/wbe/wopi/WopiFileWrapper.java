@@ -27,6 +27,8 @@ package org.silverpeas.wbe.wopi;
 import org.silverpeas.core.wbe.WbeFile;
 import org.silverpeas.core.webapi.wbe.WbeFileWrapper;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.OffsetDateTime;
 
 import static java.time.ZoneOffset.UTC;
@@ -34,13 +36,43 @@ import static java.time.ZoneOffset.UTC;
 /**
  * This WRAPPER is used by WOPI host and gives the possibility to add functionality
  * contextualized to a WopiFile.
+ * <p>
+ *   As a wrapper is created for each request, the metadata of the file (size, mime-type and last
+ *   modification date) are loaded once from the wrapped file and kept for the whole request.
+ *   They are refreshed after an update of the file content, or explicitly with
+ *   {@link #refresh()}.
+ * </p>
  * @author silveryocha
  */
 public class WopiFileWrapper extends WbeFileWrapper {
 
+  private final WbeFile wopiFile;
+  private volatile Metadata metadata;
 
   WopiFileWrapper(final WbeFile wopiFile) {
     super(wopiFile);
+    this.wopiFile = wopiFile;
+  }
+
+  /**
+   * Gets the file of Silverpeas wrapped by the given one, if any. Unlike its wrapper, it can be
+   * kept beyond the request for which it has been wrapped.
+   * @param file a {@link WbeFile} instance.
+   * @return the wrapped file if the given one is a {@link WopiFileWrapper}, the given file
+   * otherwise.
+   */
+  static WbeFile unwrap(final WbeFile file) {
+    return file instanceof WopiFileWrapper ? ((WopiFileWrapper) file).wopiFile : file;
+  }
+
+  @Override
+  public long size() {
+    return getMetadata().size;
+  }
+
+  @Override
+  public String mimeType() {
+    return getMetadata().mimeType;
   }
 
   /**
@@ -49,6 +81,48 @@ public class WopiFileWrapper extends WbeFileWrapper {
    */
   @Override
   public OffsetDateTime lastModificationDate() {
-    return super.lastModificationDate().withNano(0).withOffsetSameInstant(UTC);
+    return getMetadata().lastModificationDate;
+  }
+
+  @Override
+  public void updateFrom(final InputStream input) throws IOException {
+    try {
+      super.updateFrom(input);
+    } finally {
+      refresh();
+    }
+  }
+
+  /**
+   * Forces the metadata of the file to be loaded again from the wrapped file at next access.
+   */
+  public void refresh() {
+    metadata = null;
+  }
+
+  private Metadata getMetadata() {
+    Metadata current = metadata;
+    if (current == null) {
+      current = new Metadata(super.size(), super.mimeType(),
+          super.lastModificationDate().withNano(0).withOffsetSameInstant(UTC));
+      metadata = current;
+    }
+    return current;
+  }
+
+  /**
+   * The metadata of the file, loaded once from the wrapped file.
+   */
+  private static class Metadata {
+    private final long size;
+    private final String mimeType;
+    private final OffsetDateTime lastModificationDate;
+
+    private Metadata(final long size, final String mimeType,
+        final OffsetDateTime lastModificationDate) {
+      this.size = size;
+      this.mimeType = mimeType;
+      this.lastModificationDate = lastModificationDate;
+    }
   }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.lock.WopiLock;
+import org.silverpeas.wbe.wopi.util.TimerWheel;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+
+import static java.text.MessageFormat.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+
+/**
+ * The expiration of the WOPI locks.
+ * <p>
+ *   As specified by WOPI protocol, a lock expires after 30 minutes unless it is refreshed. The
+ *   deadlines of the locks are kept into a {@link TimerWheel} keyed by file identifier, and a
+ *   single sweeper clears every lock which has not been refreshed in time. The lock of a file
+ *   is also cleared as soon as its deadline is checked during a lock request. Once its deadline
+ *   is reached, a lock is only cleared if its expiration in the {@link WopiLockTable} is
+ *   reached too, as it may have been refreshed through another node.
+ * </p>
+ * <p>
+ *   Only the digest of a lock is tracked with the identifier of its file. The sweeper gets the
+ *   file from the {@link WopiFileRegistry}. A file which is not registered anymore keeps its
+ *   lock until its next access, at which the expired lock is cleared by the
+ *   {@link WopiLockTable}.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiLockExpirations {
+
+  static final Duration LOCK_DURATION = Duration.ofMinutes(30);
+  private static final Duration TICK = Duration.ofSeconds(30);
+  private static final int WHEEL_SIZE = 64;
+
+  private final Clock clock;
+  private final TimerWheel<String, String> wheel;
+  private ScheduledFuture<?> sweeping;
+
+  @Inject
+  private WopiLockTable lockTable;
+
+  @Inject
+  private WopiFileRegistry fileRegistry;
+
+  @Inject
+  private WopiExecutors executors;
+
+  protected WopiLockExpirations() {
+    this(Clock.systemUTC());
+  }
+
+  WopiLockExpirations(final WopiLockTable lockTable, final WopiFileRegistry fileRegistry,
+      final WopiExecutors executors, final Clock clock) {
+    this(clock);
+    this.lockTable = lockTable;
+    this.fileRegistry = fileRegistry;
+    this.executors = executors;
+  }
+
+  private WopiLockExpirations(final Clock clock) {
+    this.clock = clock;
+    this.wheel = new TimerWheel<>(TICK, WHEEL_SIZE, clock.millis());
+  }
+
+  @PostConstruct
+  protected void init() {
+    sweeping = executors.getScheduler()
+        .scheduleWithFixedDelay(this::sweep, TICK.toMillis(), TICK.toMillis(), MILLISECONDS);
+  }
+
+  /**
+   * Starts or extends the delay before the expiration of the given lock of the given file.
+   * @param file a locked file.
+   * @param lockId the identifier of the lock.
+   */
+  protected void track(final WbeFile file, final String lockId) {
+    wheel.schedule(file.id(), WopiLock.digestOf(lockId),
+        clock.millis() + LOCK_DURATION.toMillis());
+  }
+
+  /**
+   * Starts the delay before the expiration of the current lock of the given file if it is not
+   * yet tracked, as for a lock taken from another node or before the starting of the server.
+   * @param file a file.
+   */
+  protected void adopt(final WbeFile file) {
+    if (!wheel.contains(file.id())) {
+      lockTable.getLock(file).ifPresent(l -> wheel.schedule(file.id(), l.getDigest(),
+          l.getExpiration().toEpochMilli()));
+    }
+  }
+
+  /**
+   * Stops the tracking of the lock of the given file, as it has been released.
+   * @param file an unlocked file.
+   */
+  protected void untrack(final WbeFile file) {
+    wheel.cancel(file.id());
+  }
+
+  /**
+   * Clears at once the lock of the given file if it has expired.
+   * @param file a file.
+   */
+  protected void expireIfDue(final WbeFile file) {
+    wheel.expire(file.id(), clock.millis()).ifPresent(d -> expire(file, d));
+  }
+
+  /**
+   * Gets the number of the locks which are tracked.
+   * @return a number of locks.
+   */
+  public int getTrackedCount() {
+    return wheel.size();
+  }
+
+  @PreDestroy
+  protected void shutdown() {
+    sweeping.cancel(false);
+  }
+
+  private void sweep() {
+    wheel.advance(clock.millis(), (fileId, lockDigest) -> {
+      final Optional<WbeFile> file = fileRegistry.get(fileId);
+      if (file.isPresent()) {
+        expire(file.get(), lockDigest);
+      } else {
+        logger().debug(() -> format("expired lock of file {0} left until its next access",
+            fileId));
+      }
+    });
+  }
+
+  private void expire(final WbeFile file, final String lockDigest) {
+    try {
+      // the lock may have been refreshed meanwhile, from another node for example
+      lockTable.getExpiration(file, lockDigest)
+          .ifPresent(e -> wheel.schedule(file.id(), lockDigest, e.toEpochMilli()));
+    } catch (RuntimeException e) {
+      logger().error(e);
+    }
+  }
+}
@@ -27,6 +27,7 @@ package org.silverpeas.wbe.wopi;
 import org.silverpeas.core.annotation.Service;
 import org.silverpeas.core.wbe.WbeFile;
 
+import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Response;
 import java.util.Optional;
@@ -47,6 +48,11 @@ public class WopiLockResponseManager {
 
   private static final String WOPI_OLD_LOCK_HEADER = "X-WOPI-OldLock";
 
+  @Inject
+  private WopiLockTable lockTable;
+  @Inject
+  private WopiLockExpirations expirations;
+
   protected WopiLockResponseManager() {
   }
 
@@ -67,13 +73,24 @@ public class WopiLockResponseManager {
    */
   protected Optional<Response> manage(final HttpServletRequest request, final String lockAction,
       final WbeFile file) {
-    final Response response;
     if (!isEnabled()) {
-      response = null;
-    } else if (currentLockIsNotWopiOne(file)) {
+      return Optional.empty();
+    }
+    try (final WopiLockTable.Fence ignored = lockTable.fence(file)) {
+      return manageFenced(request, lockAction, file);
+    }
+  }
+
+  private Optional<Response> manageFenced(final HttpServletRequest request,
+      final String lockAction, final WbeFile file) {
+    expirations.expireIfDue(file);
+    if (lockTable.isLockedExternally(file)) {
       logger().debug(() -> format("EXTERNAL LOCK CONFLICT on file {0}", file));
-      response = Response.status(CONFLICT).header(WOPI_LOCK_HEADER, EMPTY).build();
-    } else if ("LOCK".equals(lockAction)) {
+      return Optional.of(Response.status(CONFLICT).header(WOPI_LOCK_HEADER, EMPTY).build());
+    }
+    expirations.adopt(file);
+    final Response response;
+    if ("LOCK".equals(lockAction)) {
       response = lock(request, file);
     } else if ("GET_LOCK".equals(lockAction)) {
       response = getLock(file);
@@ -92,59 +109,53 @@ public class WopiLockResponseManager {
     final String oldLockId = request.getHeader(WOPI_OLD_LOCK_HEADER);
     if (isDefined(oldLockId)) {
       // unlock and relock case
-      if (!file.lock().exists() || !file.lock().id().equals(oldLockId)) {
+      if (!lockTable.relock(file, oldLockId, lockId)) {
         logger().debug(() -> format("RELOCK CONFLICT with old lock {0} on file {1}", oldLockId, file));
-        return Response.status(CONFLICT)
-            .header(WOPI_LOCK_HEADER, file.lock().id())
-            .build();
+        return conflict(file);
       }
       logger().debug(() -> format("RELOCK with new lock {0} on file {1}", lockId, file));
     } else {
       // new lock case
-      if (file.lock().exists() && !file.lock().id().equals(lockId)) {
+      if (!lockTable.lock(file, lockId)) {
         logger().debug(() -> format("LOCK CONFLICT with new lock {0} on file {1}", lockId, file));
-        return Response.status(CONFLICT)
-            .header(WOPI_LOCK_HEADER, file.lock().id())
-            .build();
+        return conflict(file);
       }
       logger().debug(() -> format("LOCK with new lock {0} on file {1}", lockId, file));
     }
-    file.lock().setId(lockId);
-    return Response.ok().header(WOPI_LOCK_HEADER, file.lock().id()).build();
+    expirations.track(file, lockId);
+    return Response.ok().header(WOPI_LOCK_HEADER, lockId).build();
   }
 
   private Response getLock(final WbeFile file) {
     logger().debug(() -> format("GET LOCK on file {0}", file));
-    return Response.ok().header(WOPI_LOCK_HEADER, file.lock().id()).build();
+    return Response.ok().header(WOPI_LOCK_HEADER, lockTable.getLockId(file)).build();
   }
 
   private Response refreshLock(final HttpServletRequest request, final WbeFile file) {
     final String lockId = request.getHeader(WOPI_LOCK_HEADER);
-    if (!file.lock().exists() || !file.lock().id().equals(lockId)) {
+    if (!lockTable.refresh(file, lockId)) {
       logger().debug(() -> format("REFRESH LOCK CONFLICT with new lock {0} on file {1}", lockId, file));
-      return Response.status(CONFLICT)
-          .header(WOPI_LOCK_HEADER, file.lock().id())
-          .build();
+      return conflict(file);
     }
     logger().debug(() -> format("REFRESH LOCK with new lock {0} on file {1}", lockId, file));
-    file.lock().setId(lockId);
-    return Response.ok().header(WOPI_LOCK_HEADER, file.lock().id()).build();
+    expirations.track(file, lockId);
+    return Response.ok().header(WOPI_LOCK_HEADER, lockId).build();
   }
 
   private Response unlock(final HttpServletRequest request, final WbeFile file) {
     final String lockId = request.getHeader(WOPI_LOCK_HEADER);
-    if (!file.lock().exists() || !file.lock().id().equals(lockId)) {
+    if (!lockTable.unlock(file, lockId)) {
       logger().debug(() -> format("UNLOCK CONFLICT with lock {0} on file {1}", lockId, file));
-      return Response.status(CONFLICT)
-          .header(WOPI_LOCK_HEADER, file.lock().id())
-          .build();
+      return conflict(file);
     }
     logger().debug(() -> format("UNLOCK on file {0}", file));
-    file.lock().clear();
+    expirations.untrack(file);
     return Response.ok().build();
   }
 
-  private boolean currentLockIsNotWopiOne(final WbeFile file) {
-    return file.lock().exists() && file.lock().id().length() > 1024;
+  private Response conflict(final WbeFile file) {
+    return Response.status(CONFLICT)
+        .header(WOPI_LOCK_HEADER, lockTable.getLockId(file))
+        .build();
   }
 }
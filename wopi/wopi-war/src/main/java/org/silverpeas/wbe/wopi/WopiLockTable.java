@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.lock.MemoryLockStore;
+import org.silverpeas.wbe.wopi.lock.SharedFileLockStore;
+import org.silverpeas.wbe.wopi.lock.WopiLock;
+import org.silverpeas.wbe.wopi.lock.WopiLockStore;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static java.text.MessageFormat.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+import static org.silverpeas.wbe.wopi.util.WopiSettings.configuration;
+
+/**
+ * The table of the WOPI locks of the files, performing each transition of a lock as an atomic
+ * compare-and-set.
+ * <p>
+ *   The locks are kept by a {@link WopiLockStore}, which may be shared by all the nodes of a
+ *   cluster. The lock of a file is also set on the file itself, so it is visible from the rest
+ *   of Silverpeas, as the digest of its identifier prefixed by a marker: a lock of the file
+ *   without this marker is one taken by another way than WOPI. A lock of a file which is
+ *   expired in the store is considered as released.
+ * </p>
+ * <p>
+ *   The previous versions set the identifier of a WOPI lock as is on the file, and considered
+ *   the ones longer than {@link #LEGACY_MAX_LOCK_LENGTH} characters as external locks. For the
+ *   transition, such a lock without the marker is still taken as a WOPI lock: it is adopted
+ *   into the store and marked on the file at its first access.
+ * </p>
+ * <p>
+ *   As the identifiers of the locks can be very long, they are compared by their digest.
+ * </p>
+ * <p>
+ *   The lock of a file is both read and modified while holding the fence of the file, so two
+ *   concurrent requests cannot both succeed in taking the lock of a same file. The fences are
+ *   striped by file identifier: the requests about different files are rarely serialized and
+ *   no global monitor is used. A fence can also be taken by a caller in order to perform an
+ *   operation against the lock held at that time, as the commit of a PutFile request.
+ * </p>
+ * <p>
+ *   The refreshes of the locks are batched and given to the store every
+ *   {@link #REFRESH_PERIOD}, as a lock is only refreshed long before its expiration.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiLockTable {
+
+  private static final int LOCK_STRIPES = 256;
+  private static final Duration REFRESH_PERIOD = Duration.ofSeconds(10);
+  private static final String FILE_LOCK_MARKER = "wopi-lock:";
+  // to remove once the WOPI locks set by the previous versions have all been released
+  static final int LEGACY_MAX_LOCK_LENGTH = 1024;
+
+  private final ReentrantLock[] fences = new ReentrantLock[LOCK_STRIPES];
+  private final Map<String, WopiLock> pendingRefreshes = new ConcurrentHashMap<>();
+  private final Clock clock;
+  private volatile WopiLockStore store;
+  private ScheduledFuture<?> refreshing;
+
+  @Inject
+  private Instance<WopiLockStore> providedStores;
+
+  @Inject
+  private WopiExecutors executors;
+
+  protected WopiLockTable() {
+    this(Clock.systemUTC());
+  }
+
+  WopiLockTable(final WopiLockStore store, final WopiExecutors executors, final Clock clock) {
+    this(clock);
+    this.store = store;
+    this.executors = executors;
+  }
+
+  private WopiLockTable(final Clock clock) {
+    this.clock = clock;
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      fences[i] = new ReentrantLock();
+    }
+  }
+
+  @PostConstruct
+  protected void init() {
+    refreshing = executors.getScheduler().scheduleWithFixedDelay(this::flushRefreshes,
+        REFRESH_PERIOD.toMillis(), REFRESH_PERIOD.toMillis(), MILLISECONDS);
+  }
+
+  /**
+   * Takes the fence of the given file. The lock of the file cannot be modified by another
+   * thread until the fence is closed.
+   * @param file a file.
+   * @return the taken fence to close once the fenced operation is done.
+   */
+  protected Fence fence(final WbeFile file) {
+    return fence(file.id());
+  }
+
+  /**
+   * Takes the fence of the file of given identifier.
+   * @param fileId the identifier of a file.
+   * @return the taken fence to close once the fenced operation is done.
+   * @see #fence(WbeFile)
+   */
+  protected Fence fence(final String fileId) {
+    final ReentrantLock fence = fences[Math.floorMod(fileId.hashCode(), LOCK_STRIPES)];
+    fence.lock();
+    return fence::unlock;
+  }
+
+  /**
+   * Indicates if the given file is locked by another way than WOPI.
+   * @param file a file.
+   * @return true if the file is locked but not by a WOPI client, false otherwise.
+   */
+  protected boolean isLockedExternally(final WbeFile file) {
+    final String fileLockId = getFileLockId(file);
+    return fileLockId != null && !fileLockId.startsWith(FILE_LOCK_MARKER) &&
+        !isLegacyLockId(fileLockId);
+  }
+
+  /**
+   * Indicates if the given file can be written by a WOPI client holding the given lock: the file
+   * is locked with it or, for an empty lock identifier, the file is not locked at all.
+   * @param file a file.
+   * @param lockId the identifier of the lock held by a WOPI client.
+   * @return true if the file can be written, false if the write is in conflict with the current
+   * lock of the file.
+   */
+  protected boolean isWritableWith(final WbeFile file, final String lockId) {
+    final String digest = WopiLock.digestOf(lockId);
+    try (final Fence ignored = fence(file)) {
+      return !isLockedExternally(file) && current(file)
+          .map(l -> l.hasDigest(digest))
+          .orElseGet(lockId::isEmpty);
+    }
+  }
+
+  /**
+   * Gets the current WOPI lock of the given file.
+   * @param file a file.
+   * @return an optional {@link WopiLock}, empty if the file is not locked by a WOPI client.
+   */
+  protected Optional<WopiLock> getLock(final WbeFile file) {
+    try (final Fence ignored = fence(file)) {
+      return current(file).map(this::withPendingRefresh);
+    }
+  }
+
+  /**
+   * Gets the identifier of the current WOPI lock of the given file, as given to the WOPI
+   * clients. A lock known only by its digest, as after a restart, is given as the lock set on the
+   * file: it is never empty, so the WOPI clients do not take the file as unlocked, and the
+   * client holding the lock gives its identifier back at its next LOCK or REFRESH_LOCK.
+   * @param file a file.
+   * @return the identifier of the lock, empty if the file is not locked by a WOPI client.
+   */
+  protected String getLockId(final WbeFile file) {
+    return getLock(file)
+        .map(l -> l.getLockId().isEmpty() ? FILE_LOCK_MARKER + l.getDigest() : l.getLockId())
+        .orElse("");
+  }
+
+  /**
+   * Locks the given file with the given lock identifier if the file is not locked or is
+   * already locked with the same identifier.
+   * @param file a file.
+   * @param lockId the identifier of the lock.
+   * @return true if the file is locked with the given identifier, false otherwise.
+   */
+  protected boolean lock(final WbeFile file, final String lockId) {
+    final WopiLock lock = newLock(file, lockId);
+    try (final Fence ignored = fence(file)) {
+      while (true) {
+        final Optional<WopiLock> current = current(file);
+        if (current.isPresent() && !current.get().hasDigest(lock.getDigest())) {
+          return false;
+        }
+        if (store().compareAndSet(file.id(), current.orElse(null), lock)) {
+          setFileLock(file, lock.getDigest());
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Replaces the lock of the given file by a new one if it is locked with the expected
+   * identifier.
+   * @param file a file.
+   * @param expectedLockId the identifier of the current lock.
+   * @param lockId the identifier of the new lock.
+   * @return true if the lock has been replaced, false otherwise.
+   */
+  protected boolean relock(final WbeFile file, final String expectedLockId, final String lockId) {
+    final String expectedDigest = WopiLock.digestOf(expectedLockId);
+    final WopiLock lock = newLock(file, lockId);
+    try (final Fence ignored = fence(file)) {
+      while (true) {
+        final Optional<WopiLock> current = current(file);
+        if (current.isEmpty() || !current.get().hasDigest(expectedDigest)) {
+          return false;
+        }
+        if (store().compareAndSet(file.id(), current.get(), lock)) {
+          pendingRefreshes.remove(file.id());
+          setFileLock(file, lock.getDigest());
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Refreshes the lock of the given file if it is locked with the given identifier. The
+   * refresh is given later to the store with the other ones.
+   * @param file a file.
+   * @param lockId the identifier of the lock.
+   * @return true if the lock has been refreshed, false otherwise.
+   */
+  protected boolean refresh(final WbeFile file, final String lockId) {
+    final WopiLock lock = newLock(file, lockId);
+    try (final Fence ignored = fence(file)) {
+      final Optional<WopiLock> current = current(file);
+      if (current.isEmpty() || !current.get().hasDigest(lock.getDigest())) {
+        return false;
+      }
+      pendingRefreshes.put(file.id(), lock);
+      if (!isFileLockedWith(file, lock.getDigest())) {
+        setFileLock(file, lock.getDigest());
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Unlocks the given file if it is locked with the given identifier.
+   * @param file a file.
+   * @param lockId the identifier of the lock.
+   * @return true if the file has been unlocked, false otherwise.
+   */
+  protected boolean unlock(final WbeFile file, final String lockId) {
+    final String digest = WopiLock.digestOf(lockId);
+    try (final Fence ignored = fence(file)) {
+      while (true) {
+        final Optional<WopiLock> current = current(file);
+        if (current.isEmpty() || !current.get().hasDigest(digest)) {
+          return false;
+        }
+        if (store().compareAndSet(file.id(), current.get(), null)) {
+          pendingRefreshes.remove(file.id());
+          clearFileLock(file, digest);
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the expiration of the given lock of the given file, which is removed if it is
+   * reached.
+   * @param file a file.
+   * @param lockDigest the digest of the identifier of a lock of the file.
+   * @return the optional expiration of the lock, empty if the file is not locked anymore with
+   * the given lock.
+   */
+  protected Optional<Instant> getExpiration(final WbeFile file, final String lockDigest) {
+    try (final Fence ignored = fence(file)) {
+      final Optional<Instant> expiration = current(file)
+          .filter(l -> l.hasDigest(lockDigest))
+          .map(l -> withPendingRefresh(l).getExpiration());
+      if (expiration.isEmpty()) {
+        clearFileLock(file, lockDigest);
+      }
+      return expiration;
+    }
+  }
+
+  @PreDestroy
+  protected void shutdown() {
+    refreshing.cancel(false);
+    flushRefreshes();
+  }
+
+  /**
+   * Gets the current lock of the given file from the store, as it is stored. An expired lock
+   * is removed.
+   */
+  private Optional<WopiLock> current(final WbeFile file) {
+    final String fileId = file.id();
+    final WopiLockStore lockStore = store();
+    while (true) {
+      final Optional<WopiLock> stored = lockStore.get(fileId);
+      if (stored.isEmpty()) {
+        final String fileLockId = getFileLockId(file);
+        final WopiLock taken;
+        if (fileLockId == null || isLockedExternally(file)) {
+          return stored;
+        } else if (isLegacyLockId(fileLockId)) {
+          // a lock set as is on the file by a previous version
+          taken = newLock(file, fileLockId);
+        } else if (lockStore.isShared()) {
+          // the lock set on the file has been released from another node
+          clearFileLockId(file);
+          return stored;
+        } else {
+          // a lock set on the file before the starting of the server, of which only the digest
+          // is known until its next refresh
+          taken = WopiLock.ofDigest(fileId, fileLockId.substring(FILE_LOCK_MARKER.length()),
+              clock.instant().plus(WopiLockExpirations.LOCK_DURATION));
+        }
+        if (lockStore.compareAndSet(fileId, null, taken)) {
+          if (!isFileLockedWith(file, taken.getDigest())) {
+            setFileLock(file, taken.getDigest());
+          }
+          return Optional.of(taken);
+        }
+      } else if (!withPendingRefresh(stored.get()).isExpiredAt(clock.instant())) {
+        return stored;
+      } else if (lockStore.compareAndSet(fileId, stored.get(), null)) {
+        logger().debug(
+            () -> format("LOCK {0} EXPIRED on file {1}", stored.get().getDigest(), file));
+        pendingRefreshes.remove(fileId);
+        clearFileLock(file, stored.get().getDigest());
+        return Optional.empty();
+      }
+    }
+  }
+
+  private WopiLock withPendingRefresh(final WopiLock lock) {
+    final WopiLock refreshed = pendingRefreshes.get(lock.getFileId());
+    return refreshed != null && refreshed.hasDigest(lock.getDigest()) ? refreshed : lock;
+  }
+
+  private static boolean isLegacyLockId(final String fileLockId) {
+    return !fileLockId.startsWith(FILE_LOCK_MARKER) &&
+        fileLockId.length() <= LEGACY_MAX_LOCK_LENGTH;
+  }
+
+  private boolean isFileLockedWith(final WbeFile file, final String lockDigest) {
+    return (FILE_LOCK_MARKER + lockDigest).equals(getFileLockId(file));
+  }
+
+  private void setFileLock(final WbeFile file, final String lockDigest) {
+    setFileLockId(file, FILE_LOCK_MARKER + lockDigest);
+  }
+
+  private void clearFileLock(final WbeFile file, final String lockDigest) {
+    if (isFileLockedWith(file, lockDigest)) {
+      clearFileLockId(file);
+    }
+  }
+
+  /**
+   * Gets the identifier of the lock set on the given file itself.
+   * @param file a file.
+   * @return the identifier of the lock of the file, null if the file is not locked.
+   */
+  String getFileLockId(final WbeFile file) {
+    return file.lock().exists() ? file.lock().id() : null;
+  }
+
+  /**
+   * Sets a lock with the given identifier on the given file itself.
+   * @param file a file.
+   * @param fileLockId the identifier of the lock.
+   */
+  void setFileLockId(final WbeFile file, final String fileLockId) {
+    file.lock().setId(fileLockId);
+  }
+
+  /**
+   * Clears the lock set on the given file itself.
+   * @param file a file.
+   */
+  void clearFileLockId(final WbeFile file) {
+    file.lock().clear();
+  }
+
+  private void flushRefreshes() {
+    if (pendingRefreshes.isEmpty()) {
+      return;
+    }
+    final List<WopiLock> refreshes = new ArrayList<>(pendingRefreshes.size());
+    pendingRefreshes.forEach((fileId, lock) -> {
+      if (pendingRefreshes.remove(fileId, lock)) {
+        refreshes.add(lock);
+      }
+    });
+    try {
+      store().refresh(refreshes);
+      logger().debug(() -> format("{0} WOPI lock refreshes stored", refreshes.size()));
+    } catch (RuntimeException e) {
+      logger().error(e);
+    }
+  }
+
+  private WopiLockStore store() {
+    WopiLockStore current = store;
+    if (current == null) {
+      synchronized (this) {
+        current = store;
+        if (current == null) {
+          current = selectStore(providedStores.stream(), configuration().getLockStorePath());
+          final String storeName = current.getClass().getSimpleName();
+          logger().debug(() -> format("WOPI locks kept by {0}", storeName));
+          store = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Selects the store of the locks: the one provided as a CDI bean if any, otherwise the one
+   * given by the settings. The stores of the settings are not CDI beans, so they cannot be
+   * provided by the container in place of the configured one.
+   * @param providedStores the stores provided as CDI beans.
+   * @param storePath the path of the directory of the locks shared by the nodes, if any.
+   * @return the selected {@link WopiLockStore}.
+   */
+  static WopiLockStore selectStore(final Stream<WopiLockStore> providedStores,
+      final Optional<Path> storePath) {
+    return providedStores.findFirst()
+        .orElseGet(() -> storePath.<WopiLockStore>map(SharedFileLockStore::new)
+            .orElseGet(MemoryLockStore::new));
+  }
+
+  private WopiLock newLock(final WbeFile file, final String lockId) {
+    return new WopiLock(file.id(), lockId,
+        clock.instant().plus(WopiLockExpirations.LOCK_DURATION));
+  }
+
+  /**
+   * The fence of a file, released on closing.
+   */
+  @FunctionalInterface
+  public interface Fence extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+}
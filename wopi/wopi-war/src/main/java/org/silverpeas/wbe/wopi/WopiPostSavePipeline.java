@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.admin.user.model.User;
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.util.WopiConfiguration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.text.MessageFormat.format;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+import static org.silverpeas.wbe.wopi.util.WopiSettings.configuration;
+
+/**
+ * The pipeline of the secondary treatments following the save of a file by a WOPI client, like
+ * the notification of the host manager at the closing of an editor.
+ * <p>
+ *   The treatments are performed in background, so the PutFile requests are answered as soon as
+ *   the content is committed to the storage. The treatments of a same file are performed in the
+ *   order of their submission, whereas the ones of different files are performed in parallel by
+ *   a fixed number of threads.
+ * </p>
+ * <p>
+ *   A treatment keeps the identifier of the file and not the file given to the request, which is
+ *   wrapped for the request only: the file is got from the {@link WopiFileRegistry} when the
+ *   treatment is performed, on behalf of the user who submitted it.
+ * </p>
+ * <p>
+ *   The number of waiting treatments is bounded (see
+ *   {@link WopiConfiguration#getPostSaveMaxQueued()}). Beyond it, a submission is rejected and
+ *   counted, and the submitter performs the treatment itself. The queue depth, the lag and the
+ *   counters of the pipeline are exposed as the JMX bean {@value #MBEAN_NAME}.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiPostSavePipeline implements WopiPostSavePipelineMXBean {
+
+  static final String MBEAN_NAME = "org.silverpeas.wbe.wopi:type=WopiPostSavePipeline";
+
+  private final Map<String, Deque<Treatment>> queues = new HashMap<>();
+  private final AtomicLong processed = new AtomicLong(0);
+  private final AtomicLong rejected = new AtomicLong(0);
+  private final AtomicLong lastLag = new AtomicLong(0);
+  private int maxQueued;
+  private int queueDepth = 0;
+  private ExecutorService executor;
+
+  @Inject
+  private WopiExecutors executors;
+
+  @Inject
+  private WopiFileRegistry fileRegistry;
+
+  protected WopiPostSavePipeline() {
+  }
+
+  WopiPostSavePipeline(final WopiExecutors executors, final WopiFileRegistry fileRegistry,
+      final int threads, final int maxQueued) {
+    this.executors = executors;
+    this.fileRegistry = fileRegistry;
+    start(threads, maxQueued);
+  }
+
+  @PostConstruct
+  protected void init() {
+    final WopiConfiguration configuration = configuration();
+    start(configuration.getPostSaveThreads(), configuration.getPostSaveMaxQueued());
+    registerMBean();
+  }
+
+  private void start(final int threads, final int maxQueued) {
+    this.maxQueued = maxQueued;
+    this.executor = executors.newPool(threads);
+  }
+
+  /**
+   * Submits a treatment following the save of the file of given identifier.
+   * @param fileId the identifier of the saved file.
+   * @param name the name of the treatment, for logging.
+   * @param requester the user on behalf of whom the treatment is performed.
+   * @param treatment the treatment to perform on the file.
+   * @return true if the treatment is queued, false if it is rejected because the pipeline is
+   * full, in which case the caller has to perform it.
+   */
+  public boolean submit(final String fileId, final String name, final User requester,
+      final Consumer<WbeFile> treatment) {
+    final boolean idle;
+    synchronized (queues) {
+      if (queueDepth >= maxQueued) {
+        rejected.incrementAndGet();
+        logger().warn(() -> format("post save pipeline full, {0} of file {1} rejected", name,
+            fileId));
+        return false;
+      }
+      final Deque<Treatment> queue = queues.computeIfAbsent(fileId, i -> new ArrayDeque<>());
+      idle = queue.isEmpty();
+      queue.add(new Treatment(fileId, name, requester, treatment));
+      queueDepth++;
+    }
+    if (idle) {
+      executor.execute(() -> drain(fileId));
+    }
+    return true;
+  }
+
+  @Override
+  public int getQueueDepth() {
+    synchronized (queues) {
+      return queueDepth;
+    }
+  }
+
+  @Override
+  public long getLagMillis() {
+    final long now = System.nanoTime();
+    synchronized (queues) {
+      return TimeUnit.NANOSECONDS.toMillis(queues.values()
+          .stream()
+          .map(Deque::peekFirst)
+          .filter(t -> t != null && !t.started)
+          .mapToLong(t -> now - t.submissionTime)
+          .max()
+          .orElse(0));
+    }
+  }
+
+  @Override
+  public long getLastLagMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastLag.get());
+  }
+
+  @Override
+  public long getProcessedCount() {
+    return processed.get();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @PreDestroy
+  protected void shutdown() {
+    unregisterMBean();
+    executor.shutdown();
+  }
+
+  /**
+   * Registers this pipeline into the platform MBean server. A failure is logged but does not
+   * prevent the pipeline to work.
+   */
+  void registerMBean() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(MBEAN_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      logger().error("post save pipeline metrics cannot be exposed", e);
+    }
+  }
+
+  private void unregisterMBean() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(MBEAN_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (JMException e) {
+      logger().error("post save pipeline metrics cannot be unregistered", e);
+    }
+  }
+
+  private void drain(final String fileId) {
+    while (true) {
+      final Treatment treatment;
+      synchronized (queues) {
+        treatment = queues.get(fileId).peekFirst();
+        treatment.started = true;
+      }
+      perform(treatment);
+      synchronized (queues) {
+        final Deque<Treatment> queue = queues.get(fileId);
+        queue.pollFirst();
+        queueDepth--;
+        processed.incrementAndGet();
+        if (queue.isEmpty()) {
+          queues.remove(fileId);
+          return;
+        }
+      }
+    }
+  }
+
+  private void perform(final Treatment treatment) {
+    lastLag.set(System.nanoTime() - treatment.submissionTime);
+    try {
+      final Optional<WbeFile> file = fileRegistry.get(treatment.fileId);
+      if (file.isPresent()) {
+        WopiRequester.runAs(treatment.requester, () -> treatment.consumer.accept(file.get()));
+      } else {
+        logger().debug(() -> format("post save treatment {0} skipped, file {1} no more known",
+            treatment.name, treatment.fileId));
+      }
+    } catch (RuntimeException e) {
+      logger().warn(() -> format("post save treatment {0} failed", treatment.name));
+      logger().error(e);
+    }
+  }
+
+  /**
+   * A treatment submitted to the pipeline.
+   */
+  private static class Treatment {
+    private final String fileId;
+    private final String name;
+    private final User requester;
+    private final Consumer<WbeFile> consumer;
+    private final long submissionTime = System.nanoTime();
+    private boolean started = false;
+
+    private Treatment(final String fileId, final String name, final User requester,
+        final Consumer<WbeFile> consumer) {
+      this.fileId = fileId;
+      this.name = name;
+      this.requester = requester;
+      this.consumer = consumer;
+    }
+  }
+}
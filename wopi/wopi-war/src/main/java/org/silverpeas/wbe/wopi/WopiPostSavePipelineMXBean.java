@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+/**
+ * The metrics of the {@link WopiPostSavePipeline} exposed through JMX.
+ * @author silveryocha
+ */
+public interface WopiPostSavePipelineMXBean {
+
+  /**
+   * Gets the number of treatments waiting to be performed, the running ones included.
+   * @return a number of treatments.
+   */
+  int getQueueDepth();
+
+  /**
+   * Gets the lag of the pipeline, that is the waiting time of the oldest treatment not yet
+   * started.
+   * @return a duration in milliseconds, zero if no treatment is waiting.
+   */
+  long getLagMillis();
+
+  /**
+   * Gets the time the last started treatment waited before being performed.
+   * @return a duration in milliseconds.
+   */
+  long getLastLagMillis();
+
+  /**
+   * Gets the number of treatments performed since the start.
+   * @return a number of treatments.
+   */
+  long getProcessedCount();
+
+  /**
+   * Gets the number of treatments rejected since the start because the pipeline was full.
+   * @return a number of treatments.
+   */
+  long getRejectedCount();
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.annotation.Service;
+import org.silverpeas.core.wbe.WbeFile;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import static java.text.MessageFormat.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+import static org.silverpeas.wbe.wopi.util.WopiSettings.configuration;
+
+/**
+ * The registry of the users editing each file, as sent by the WOPI clients.
+ * <p>
+ *   The editors send the whole list of the users editing a file at every join or leave of a
+ *   co-editor, and each of them sends it. The lists received for a file are compared to the last
+ *   received one, and the changes are gathered during a short window (see
+ *   {@link org.silverpeas.wbe.wopi.util.WopiConfiguration#getPresenceWindow()}). At the end of
+ *   the window, the host manager is notified only if the users differ from the last notified
+ *   ones.
+ * </p>
+ * <p>
+ *   The last editor of a file closes it without sending any list. So the users of a file are
+ *   forgotten when the file is revoked at the closing of its editor (see {@link #reset(String)}),
+ *   and the files without any list received for {@link #IDLE_DURATION} are removed by a periodic
+ *   sweep. The files are got from the {@link WopiFileRegistry} at the notification.
+ * </p>
+ * @author silveryocha
+ */
+@Service
+public class WopiPresenceRegistry {
+
+  static final Duration IDLE_DURATION = Duration.ofMinutes(30);
+  private static final Duration SWEEP_PERIOD = Duration.ofMinutes(5);
+
+  private final Map<String, Presence> presences = new ConcurrentHashMap<>();
+  private final Supplier<Duration> window;
+  private final Clock clock;
+  private ScheduledFuture<?> sweeping;
+
+  @Inject
+  private WopiFileRegistry fileRegistry;
+
+  @Inject
+  private WopiExecutors executors;
+
+  protected WopiPresenceRegistry() {
+    this.window = () -> configuration().getPresenceWindow();
+    this.clock = Clock.systemUTC();
+  }
+
+  WopiPresenceRegistry(final WopiFileRegistry fileRegistry, final WopiExecutors executors,
+      final Duration window, final Clock clock) {
+    this.fileRegistry = fileRegistry;
+    this.executors = executors;
+    this.window = () -> window;
+    this.clock = clock;
+  }
+
+  @PostConstruct
+  protected void init() {
+    sweeping = executors.getScheduler()
+        .scheduleWithFixedDelay(this::sweep, SWEEP_PERIOD.toMillis(), SWEEP_PERIOD.toMillis(),
+            MILLISECONDS);
+  }
+
+  @PreDestroy
+  protected void shutdown() {
+    if (sweeping != null) {
+      sweeping.cancel(false);
+    }
+  }
+
+  /**
+   * Registers the users currently editing the given file.
+   * @param file the edited file.
+   * @param userIds the identifiers of the users editing the file.
+   * @param notification the notification of the host manager with the users, like
+   * {@link org.silverpeas.core.wbe.WbeHostManager#notifyEditionWith}.
+   */
+  protected void update(final WbeFile file, final Set<String> userIds,
+      final BiConsumer<WbeFile, Set<String>> notification) {
+    final Duration window = this.window.get();
+    final String fileId = file.id();
+    while (true) {
+      final Presence presence = presences.computeIfAbsent(fileId, k -> new Presence());
+      synchronized (presence) {
+        if (presences.get(fileId) != presence) {
+          // removed meanwhile, as no more user was editing the file
+          continue;
+        }
+        presence.lastUpdate = clock.millis();
+        if (userIds.equals(presence.received)) {
+          return;
+        }
+        presence.notification = notification;
+        presence.received = Set.copyOf(userIds);
+        if (presence.task != null) {
+          return;
+        }
+        if (!window.isZero()) {
+          presence.task = executors.getScheduler()
+              .schedule(() -> notify(fileId, presence), window.toMillis(), MILLISECONDS);
+          return;
+        }
+      }
+      notify(fileId, presence);
+      return;
+    }
+  }
+
+  /**
+   * Forgets the users notified for the given file, as the host manager has cleared its edition
+   * state. The next list of users received for the file is then notified, even if it is the same
+   * as the last notified one. A notification waiting for the end of its window is kept.
+   * @param fileId the identifier of the revoked file.
+   */
+  protected void reset(final String fileId) {
+    final Presence presence = presences.get(fileId);
+    if (presence != null) {
+      synchronized (presence) {
+        presence.notified = null;
+        if (presence.task == null) {
+          presences.remove(fileId, presence);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the number of the files with users editing them.
+   * @return a number of files.
+   */
+  public int getFileCount() {
+    return presences.size();
+  }
+
+  /**
+   * Removes the files without any list of users received for {@link #IDLE_DURATION}.
+   */
+  void sweep() {
+    final long idleTime = clock.millis() - IDLE_DURATION.toMillis();
+    presences.forEach((fileId, presence) -> {
+      synchronized (presence) {
+        if (presence.task == null && presence.lastUpdate <= idleTime) {
+          presences.remove(fileId, presence);
+          logger().debug(() -> format("users of file {0} forgotten after inactivity", fileId));
+        }
+      }
+    });
+  }
+
+  private void notify(final String fileId, final Presence presence) {
+    final Set<String> userIds;
+    final BiConsumer<WbeFile, Set<String>> notification;
+    synchronized (presence) {
+      presence.task = null;
+      if (presence.received.equals(presence.notified)) {
+        return;
+      }
+      userIds = presence.received;
+      notification = presence.notification;
+      presence.notified = userIds;
+      if (userIds.isEmpty()) {
+        presences.remove(fileId, presence);
+      }
+    }
+    final Optional<WbeFile> file = fileRegistry.get(fileId);
+    if (file.isEmpty()) {
+      logger().debug(() -> format("users of file {0} not notified, file no more known", fileId));
+      return;
+    }
+    logger().debug(() -> format("{0} users editing file {1}", userIds.size(), fileId));
+    try {
+      notification.accept(file.get(), userIds);
+    } catch (RuntimeException e) {
+      logger().error(e);
+    }
+  }
+
+  /**
+   * The users editing a file.
+   */
+  private static class Presence {
+    private BiConsumer<WbeFile, Set<String>> notification;
+    private Set<String> received;
+    private Set<String> notified;
+    private ScheduledFuture<?> task;
+    private long lastUpdate;
+  }
+}
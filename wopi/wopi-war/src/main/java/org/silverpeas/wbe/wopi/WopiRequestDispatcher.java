@@ -70,6 +70,8 @@ public class WopiRequestDispatcher implements WbeFileEdition.ClientRequestDispat
         editionUser.getSilverpeasSessionId(), editionFile, editionUser, clientUrl));
     return of(clientUrl).map(u -> {
       request.setAttribute("WopiClientUrl", u);
+      request.setAttribute("WopiClientOrigin",
+          wopiEdition.getClientServerBaseUrl().replaceFirst("(https?://[^/]+)(.*)", "$1"));
       request.setAttribute("WopiUser", editionUser);
       request.setAttribute("WopiFile", editionFile);
       return "/wbe/wopi/editor.jsp";
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.admin.user.model.User;
+import org.silverpeas.core.admin.user.model.UserDetail;
+import org.silverpeas.core.cache.model.SimpleCache;
+import org.silverpeas.core.cache.service.CacheAccessorProvider;
+
+/**
+ * Runs the treatments performed on behalf of a user out of the request of this user, like the
+ * commit of a pending save or the revocation of a file after its closing.
+ * <p>
+ *   The services of Silverpeas get the current requester from the cache of the current thread,
+ *   which is only filled for the threads of the requests. So the requester is put into the cache
+ *   of the executing thread for the time of the treatment.
+ * </p>
+ * @author silveryocha
+ */
+class WopiRequester {
+
+  private WopiRequester() {
+  }
+
+  /**
+   * Runs the given treatment on behalf of the given user.
+   * @param requester the user on behalf of whom the treatment is performed, null to run it
+   * without any requester.
+   * @param treatment the treatment to run.
+   * @param <E> the type of the exception thrown by the treatment.
+   * @throws E the exception thrown by the treatment.
+   */
+  static <E extends Exception> void runAs(final User requester, final Treatment<E> treatment)
+      throws E {
+    if (requester == null) {
+      treatment.run();
+      return;
+    }
+    final SimpleCache cache = CacheAccessorProvider.getThreadCacheAccessor().getCache();
+    final User previous = cache.get(UserDetail.CURRENT_REQUESTER_KEY, User.class);
+    cache.put(UserDetail.CURRENT_REQUESTER_KEY, requester);
+    try {
+      treatment.run();
+    } finally {
+      if (previous != null) {
+        cache.put(UserDetail.CURRENT_REQUESTER_KEY, previous);
+      } else {
+        cache.remove(UserDetail.CURRENT_REQUESTER_KEY);
+      }
+    }
+  }
+
+  /**
+   * A treatment performed on behalf of a user.
+   * @param <E> the type of the exception thrown by the treatment.
+   */
+  @FunctionalInterface
+  interface Treatment<E extends Exception> {
+    void run() throws E;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * The changes of the capabilities of a WOPI client between two discoveries.
+ * <p>
+ *   A change is either the addition of a new handled mime-type or extension, either the removal
+ *   of a handled one or the modification of the actions of a handled one. Only removals and
+ *   modifications can impact the editions in progress.
+ * </p>
+ * @author silveryocha
+ */
+public class DiscoveryChanges {
+
+  private static final DiscoveryChanges NONE = new DiscoveryChanges(emptySet(), emptySet(), false);
+
+  private final Set<String> mimeTypes;
+  private final Set<String> extensions;
+  private final boolean impactingEditions;
+
+  private DiscoveryChanges(final Set<String> mimeTypes, final Set<String> extensions,
+      final boolean impactingEditions) {
+    this.mimeTypes = unmodifiableSet(mimeTypes);
+    this.extensions = unmodifiableSet(extensions);
+    this.impactingEditions = impactingEditions;
+  }
+
+  static DiscoveryChanges none() {
+    return NONE;
+  }
+
+  static DiscoveryChanges all(final WopiActionTable actions) {
+    return new DiscoveryChanges(new HashSet<>(actions.getUrlsByMimeType().keySet()),
+        new HashSet<>(actions.getUrlsByExtension().keySet()), true);
+  }
+
+  static DiscoveryChanges between(final WopiActionTable previous, final WopiActionTable current) {
+    final Set<String> changedMimeTypes = new HashSet<>();
+    final Set<String> changedExtensions = new HashSet<>();
+    final boolean mimeTypesImpacting = diff(previous.getUrlsByMimeType(),
+        current.getUrlsByMimeType(), changedMimeTypes);
+    final boolean extensionsImpacting = diff(previous.getUrlsByExtension(),
+        current.getUrlsByExtension(), changedExtensions);
+    return new DiscoveryChanges(changedMimeTypes, changedExtensions,
+        mimeTypesImpacting || extensionsImpacting);
+  }
+
+  /**
+   * Fills the given set with the changed keys.
+   * @return true if an existing key has been removed or modified, false otherwise.
+   */
+  private static boolean diff(final Map<String, Map<String, String>> previous,
+      final Map<String, Map<String, String>> current, final Set<String> changes) {
+    boolean impacting = false;
+    for (final Map.Entry<String, Map<String, String>> entry : previous.entrySet()) {
+      if (!Objects.equals(entry.getValue(), current.get(entry.getKey()))) {
+        changes.add(entry.getKey());
+        impacting = true;
+      }
+    }
+    current.keySet().stream().filter(k -> !previous.containsKey(k)).forEach(changes::add);
+    return impacting;
+  }
+
+  /**
+   * Indicates if there is no change.
+   * @return true if no change, false otherwise.
+   */
+  public boolean isEmpty() {
+    return mimeTypes.isEmpty() && extensions.isEmpty();
+  }
+
+  /**
+   * Indicates if the changes impact the editions in progress, that is if a handled mime-type or
+   * extension has been removed or modified.
+   * @return true if the editions in progress are impacted, false otherwise.
+   */
+  public boolean isImpactingEditions() {
+    return impactingEditions;
+  }
+
+  /**
+   * Gets the added, removed or modified mime-types.
+   * @return an unmodifiable set of mime-types.
+   */
+  public Set<String> getMimeTypes() {
+    return mimeTypes;
+  }
+
+  /**
+   * Gets the added, removed or modified extensions.
+   * @return an unmodifiable set of extensions.
+   */
+  public Set<String> getExtensions() {
+    return extensions;
+  }
+}
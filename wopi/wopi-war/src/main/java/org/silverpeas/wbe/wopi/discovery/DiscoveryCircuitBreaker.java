@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * A circuit breaker around the discovery of a WOPI client.
+ * <p>
+ *   After a failure of the discovery, the circuit is opened and no other discovery is attempted
+ *   until the end of a backoff delay. This delay grows exponentially with the number of
+ *   consecutive failures, bounded by a maximum one. Once the delay is over, one discovery is
+ *   tried again: the circuit is closed on success and reopened for a longer delay on failure.
+ * </p>
+ * <p>
+ *   The state of the circuit is an immutable {@link Status} swapped atomically, so the checks
+ *   done by the callers are lock-free.
+ * </p>
+ * @author silveryocha
+ */
+public class DiscoveryCircuitBreaker {
+
+  /**
+   * The states of the circuit.
+   */
+  public enum State {
+    /**
+     * The discovery can be performed.
+     */
+    CLOSED,
+    /**
+     * The discovery is not performed until the end of the backoff delay.
+     */
+    OPEN,
+    /**
+     * The backoff delay is over and the next discovery will decide of the closing of the circuit.
+     */
+    HALF_OPEN
+  }
+
+  private final Clock clock;
+  private final Status closedStatus;
+  private final AtomicReference<Status> status;
+
+  /**
+   * Constructs a closed circuit breaker.
+   */
+  public DiscoveryCircuitBreaker() {
+    this(Clock.systemUTC());
+  }
+
+  /**
+   * Constructs a closed circuit breaker whose backoff delays are computed from the given clock.
+   * @param clock the clock giving the current instant.
+   */
+  DiscoveryCircuitBreaker(final Clock clock) {
+    this.clock = clock;
+    this.closedStatus = new Status(clock, 0, null, null);
+    this.status = new AtomicReference<>(closedStatus);
+  }
+
+  /**
+   * Indicates if a discovery can be performed now.
+   * @return true if the circuit is closed or if the backoff delay is over, false otherwise.
+   */
+  public boolean isCallPermitted() {
+    return status.get().getState() != State.OPEN;
+  }
+
+  /**
+   * Records a successful discovery, so the circuit is closed.
+   */
+  public void recordSuccess() {
+    status.set(closedStatus);
+  }
+
+  /**
+   * Records a failed discovery, so the circuit is opened for a delay computed from the number of
+   * consecutive failures.
+   * @param error the error of the failure.
+   * @param initialBackoff the delay after the first failure.
+   * @param maxBackoff the maximum delay whatever the number of consecutive failures.
+   * @return the new status of the circuit.
+   */
+  public Status recordFailure(final Exception error, final Duration initialBackoff,
+      final Duration maxBackoff) {
+    return status.updateAndGet(s -> {
+      final int failures = s.getConsecutiveFailures() + 1;
+      final Duration backoff = computeBackoff(failures, initialBackoff, maxBackoff);
+      return new Status(clock, failures, clock.instant().plus(backoff), error.getMessage());
+    });
+  }
+
+  /**
+   * Gets the current status of the circuit.
+   * @return a {@link Status} instance.
+   */
+  public Status getStatus() {
+    return status.get();
+  }
+
+  private static Duration computeBackoff(final int failures, final Duration initialBackoff,
+      final Duration maxBackoff) {
+    final int exponent = Math.min(failures - 1, 30);
+    final long millis = initialBackoff.toMillis() << exponent;
+    if (millis <= 0 || millis > maxBackoff.toMillis()) {
+      return maxBackoff;
+    }
+    return Duration.ofMillis(millis);
+  }
+
+  /**
+   * The status of a circuit at a given time.
+   */
+  public static class Status {
+    private final Clock clock;
+    private final int consecutiveFailures;
+    private final Instant retryAfter;
+    private final String lastError;
+
+    private Status(final Clock clock, final int consecutiveFailures, final Instant retryAfter,
+        final String lastError) {
+      this.clock = clock;
+      this.consecutiveFailures = consecutiveFailures;
+      this.retryAfter = retryAfter;
+      this.lastError = lastError;
+    }
+
+    /**
+     * Gets the state of the circuit.
+     * @return a {@link State} value.
+     */
+    public State getState() {
+      if (retryAfter == null) {
+        return State.CLOSED;
+      }
+      return clock.instant().isBefore(retryAfter) ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * Gets the number of consecutive failures of the discovery.
+     * @return a number of failures.
+     */
+    public int getConsecutiveFailures() {
+      return consecutiveFailures;
+    }
+
+    /**
+     * Gets the instant from which the discovery will be tried again.
+     * @return an optional {@link Instant}, empty when the circuit is closed.
+     */
+    public Optional<Instant> getRetryAfter() {
+      return ofNullable(retryAfter);
+    }
+
+    /**
+     * Gets the message of the error of the last failure.
+     * @return an optional message, empty when the circuit is closed.
+     */
+    public Optional<String> getLastError() {
+      return ofNullable(lastError);
+    }
+  }
+}
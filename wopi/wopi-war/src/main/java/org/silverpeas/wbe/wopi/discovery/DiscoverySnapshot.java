@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import org.silverpeas.wbe.wopi.util.Digests;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.naturalOrder;
+import static java.util.Comparator.nullsFirst;
+
+/**
+ * An immutable snapshot of the capabilities of a WOPI client as they were known at a given time.
+ * <p>
+ *   A snapshot is built from a discovery XML content and it is never modified afterwards. So it
+ *   can be shared between threads without any synchronization: a new discovery produces a new
+ *   snapshot which replaces the previous one.
+ * </p>
+ * <p>
+ *   The capabilities are held by a {@link WopiActionTable} containing all the actions of the
+ *   discovery (view, edit, embedview, ...).
+ * </p>
+ * <p>
+ *   Each snapshot carries a fingerprint of its capabilities, so two discoveries can be compared
+ *   cheaply (see {@link #changesFrom(DiscoverySnapshot)}).
+ * </p>
+ * @author silveryocha
+ */
+public class DiscoverySnapshot {
+
+  private static final Comparator<String> NULLS_FIRST = nullsFirst(naturalOrder());
+
+  private final String discoveryUrl;
+  private final Instant fetchTime;
+  private final WopiActionTable actions;
+  private final String fingerprint;
+
+  DiscoverySnapshot(final String discoveryUrl, final Instant fetchTime,
+      final WopiActionTable actions) {
+    this.discoveryUrl = discoveryUrl;
+    this.fetchTime = fetchTime;
+    this.actions = actions;
+    this.fingerprint = computeFingerprint();
+  }
+
+  /**
+   * Builds a snapshot from the given discovery XML content.
+   * <p>
+   *   The content is streamed by a {@link WopiDiscoveryReader}, so no intermediate
+   *   {@link WopiDiscovery} object graph is built.
+   * </p>
+   * @param discoveryUrl the URL from which the discovery has been fetched.
+   * @param in the discovery XML content.
+   * @return a new {@link DiscoverySnapshot} instance.
+   */
+  public static DiscoverySnapshot load(final String discoveryUrl, final InputStream in) {
+    final WopiActionTable.Builder builder = WopiActionTable.builder();
+    WopiDiscoveryReader.read(in, (appName, actionName, ext, urlsrc) ->
+        builder.add(appName, actionName, ext, urlsrc));
+    return new DiscoverySnapshot(discoveryUrl, Instant.now(), builder.build());
+  }
+
+  /**
+   * Gets the URL from which the discovery has been fetched.
+   * @return an URL as string.
+   */
+  public String getDiscoveryUrl() {
+    return discoveryUrl;
+  }
+
+  /**
+   * Gets the instant at which the discovery has been fetched.
+   * @return an {@link Instant}.
+   */
+  public Instant getFetchTime() {
+    return fetchTime;
+  }
+
+  /**
+   * Gets the table of all the discovered actions.
+   * @return a {@link WopiActionTable} instance.
+   */
+  public WopiActionTable getActions() {
+    return actions;
+  }
+
+  /**
+   * Gets the fingerprint of the discovered capabilities. Two snapshots with the same
+   * capabilities have the same fingerprint, whatever their discovery URL and fetch time.
+   * @return a fingerprint as string.
+   */
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Computes the changes of the capabilities of this snapshot from the given previous one.
+   * @param previous the previous snapshot, null if none.
+   * @return the {@link DiscoveryChanges} between both snapshots.
+   */
+  public DiscoveryChanges changesFrom(final DiscoverySnapshot previous) {
+    if (previous == null || !previous.isFrom(discoveryUrl)) {
+      return DiscoveryChanges.all(actions);
+    } else if (previous.getFingerprint().equals(fingerprint)) {
+      return DiscoveryChanges.none();
+    }
+    return DiscoveryChanges.between(previous.actions, actions);
+  }
+
+  /**
+   * Indicates if the snapshot has been taken from the given discovery URL.
+   * @param discoveryUrl a discovery URL.
+   * @return true if the snapshot comes from the given URL, false otherwise.
+   */
+  public boolean isFrom(final String discoveryUrl) {
+    return this.discoveryUrl.equals(discoveryUrl);
+  }
+
+  /**
+   * Indicates if the snapshot has been taken for a longer time than the given one.
+   * @param timeToLive the time to live of a snapshot.
+   * @return true if the snapshot is expired, false otherwise.
+   */
+  public boolean isExpired(final Duration timeToLive) {
+    return !fetchTime.plus(timeToLive).isAfter(Instant.now());
+  }
+
+  /**
+   * Indicates if no capability has been discovered.
+   * @return true if empty, false otherwise.
+   */
+  public boolean isEmpty() {
+    return actions.isEmpty();
+  }
+
+  /**
+   * Gets the base URL of the editor handling the given mime-type or, if none, the given file
+   * extension.
+   * @param mimeType a mime-type.
+   * @param extension a file extension.
+   * @return an optional URL as string.
+   */
+  public Optional<String> getBaseUrlFor(final String mimeType, final String extension) {
+    return actions.find(mimeType, extension, WopiActionTable.EDIT);
+  }
+
+  private String computeFingerprint() {
+    final MessageDigest digest = Digests.sha256();
+    actions.getEntries().stream()
+        .sorted(Comparator.comparing(WopiActionTable.Entry::getMimeType, NULLS_FIRST)
+            .thenComparing(WopiActionTable.Entry::getAction)
+            .thenComparing(WopiActionTable.Entry::getExtension, NULLS_FIRST)
+            .thenComparing(WopiActionTable.Entry::getUrl))
+        .forEach(e -> {
+          update(digest, e.getMimeType());
+          update(digest, e.getAction());
+          update(digest, e.getExtension());
+          update(digest, e.getUrl());
+        });
+    return Digests.toHex(digest.digest());
+  }
+
+  private static void update(final MessageDigest digest, final String value) {
+    if (value != null) {
+      digest.update(value.getBytes(UTF_8));
+    }
+    digest.update((byte) 0);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.text.MessageFormat.format;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+
+/**
+ * Persists the last good {@link DiscoverySnapshot} into a compact local file.
+ * <p>
+ *   By this way, the capabilities of the WOPI client are available as soon as the server is
+ *   started, without waiting for a discovery over the network. When the file is shared between
+ *   the nodes of a cluster, each of them can use the discovery fetched by another one.
+ * </p>
+ * <p>
+ *   The file is a text one with a header line followed by one line per entry, the fields being
+ *   separated by a tabulation:
+ *   <pre>
+ *     wopi-discovery-snapshot 2
+ *     url  [discovery URL]
+ *     time [fetch time in epoch milliseconds]
+ *     a    [mime-type]  [action]  [extension]  [editor URL]
+ *   </pre>
+ *   A file of another format version is ignored.
+ *   It is written into a temporary file which is then atomically moved to its final location, so
+ *   a reader never reads a partially written snapshot.
+ * </p>
+ * @author silveryocha
+ */
+public class DiscoverySnapshotStore {
+
+  private static final String HEADER = "wopi-discovery-snapshot 2";
+  private static final String SEPARATOR = "\t";
+  private static final String URL_ENTRY = "url";
+  private static final String TIME_ENTRY = "time";
+  private static final String ACTION_ENTRY = "a";
+
+  private final Path file;
+
+  /**
+   * Constructs a store of discovery snapshot into the given file.
+   * @param file the path of the file.
+   */
+  public DiscoverySnapshotStore(final Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the snapshot persisted into the file if any.
+   * <p>
+   *   An unreadable or corrupted file is ignored.
+   * </p>
+   * @return an optional {@link DiscoverySnapshot}.
+   */
+  public Optional<DiscoverySnapshot> load() {
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+    try (final BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+      if (!HEADER.equals(reader.readLine())) {
+        logger().warn(() -> format("ignoring WOPI discovery snapshot {0} of unknown format", file));
+        return Optional.empty();
+      }
+      String discoveryUrl = null;
+      Instant fetchTime = null;
+      final WopiActionTable.Builder actions = WopiActionTable.builder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String[] fields = line.split(SEPARATOR, -1);
+        if (URL_ENTRY.equals(fields[0]) && fields.length == 2) {
+          discoveryUrl = fields[1];
+        } else if (TIME_ENTRY.equals(fields[0]) && fields.length == 2) {
+          fetchTime = Instant.ofEpochMilli(Long.parseLong(fields[1]));
+        } else if (ACTION_ENTRY.equals(fields[0]) && fields.length == 5) {
+          actions.add(fields[1], fields[2], fields[3], fields[4]);
+        }
+      }
+      final WopiActionTable table = actions.build();
+      if (discoveryUrl == null || fetchTime == null || table.isEmpty()) {
+        return Optional.empty();
+      }
+      return Optional.of(new DiscoverySnapshot(discoveryUrl, fetchTime, table));
+    } catch (IOException | RuntimeException e) {
+      logger().warn(() -> format("unable to load WOPI discovery snapshot {0}: {1}", file,
+          e.getMessage()));
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Saves the given snapshot into the file.
+   * <p>
+   *   A failure is logged but not thrown as the snapshot file is only an optimization.
+   * </p>
+   * @param snapshot the snapshot to persist.
+   */
+  public void save(final DiscoverySnapshot snapshot) {
+    Path temporary = null;
+    try {
+      final Path directory = file.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+      try (final BufferedWriter writer = Files.newBufferedWriter(temporary, UTF_8)) {
+        writer.write(HEADER);
+        writer.newLine();
+        writeEntry(writer, URL_ENTRY, snapshot.getDiscoveryUrl());
+        writeEntry(writer, TIME_ENTRY, String.valueOf(snapshot.getFetchTime().toEpochMilli()));
+        for (final WopiActionTable.Entry entry : snapshot.getActions().getEntries()) {
+          writeEntry(writer, ACTION_ENTRY, nullToEmpty(entry.getMimeType()), entry.getAction(),
+              nullToEmpty(entry.getExtension()), entry.getUrl());
+        }
+      }
+      Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+      logger().debug(() -> format("WOPI discovery snapshot saved into {0}", file));
+    } catch (IOException | RuntimeException e) {
+      logger().warn(() -> format("unable to save WOPI discovery snapshot into {0}: {1}", file,
+          e.getMessage()));
+      deleteQuietly(temporary);
+    }
+  }
+
+  private static void writeEntry(final BufferedWriter writer, final String... fields)
+      throws IOException {
+    writer.write(String.join(SEPARATOR, fields));
+    writer.newLine();
+  }
+
+  private static String nullToEmpty(final String value) {
+    return value == null ? "" : value;
+  }
+
+  private static void deleteQuietly(final Path path) {
+    if (path != null) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        logger().error(e);
+      }
+    }
+  }
+}
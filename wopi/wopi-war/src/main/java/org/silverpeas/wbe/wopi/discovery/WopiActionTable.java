@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Optional.ofNullable;
+import static org.silverpeas.kernel.util.StringUtil.isDefined;
+
+/**
+ * An immutable table of all the actions of a WOPI client discovery, indexed by mime-type and by
+ * file extension.
+ * <p>
+ *   The table is built once per discovery by a {@link Builder} and it is never modified
+ *   afterwards. The lookup of the editor URL of an action for a given mime-type and extension is
+ *   done by two hash lookups at most, without any synchronization.
+ * </p>
+ * <p>
+ *   For a mime-type, the {@link #EDIT} action is the last action of the discovery whose name
+ *   contains "edit" (edit or embededit for example), as the discovery was always read. For an
+ *   extension, the action name MUST match exactly.
+ * </p>
+ * @author silveryocha
+ */
+public class WopiActionTable {
+
+  /**
+   * The action of edition.
+   */
+  public static final String EDIT = "edit";
+
+  /**
+   * The action of read-only view.
+   */
+  public static final String VIEW = "view";
+
+  private final List<Entry> entries;
+  private final Map<String, Map<String, String>> urlsByMimeType;
+  private final Map<String, Map<String, String>> urlsByExtension;
+
+  private WopiActionTable(final List<Entry> entries,
+      final Map<String, Map<String, String>> urlsByMimeType,
+      final Map<String, Map<String, String>> urlsByExtension) {
+    this.entries = unmodifiableList(entries);
+    this.urlsByMimeType = unmodifiableMap(urlsByMimeType);
+    this.urlsByExtension = unmodifiableMap(urlsByExtension);
+  }
+
+  /**
+   * Gets a new builder of table.
+   * @return a {@link Builder} instance.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Finds the editor URL performing the given action on a file of given mime-type or, if the
+   * mime-type is not handled, of given extension.
+   * @param mimeType the mime-type of the file.
+   * @param extension the extension of the file.
+   * @param action the name of the action.
+   * @return an optional URL as string.
+   */
+  public Optional<String> find(final String mimeType, final String extension,
+      final String action) {
+    final String url = urlsByMimeType.getOrDefault(mimeType, emptyMap()).get(action);
+    if (url != null) {
+      return Optional.of(url);
+    }
+    return ofNullable(urlsByExtension.getOrDefault(extension, emptyMap()).get(action));
+  }
+
+  /**
+   * Indicates if the table contains no action.
+   * @return true if empty, false otherwise.
+   */
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Gets all the actions of the table, in the order of the discovery.
+   * @return an unmodifiable list of {@link Entry}.
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Gets the editor URLs indexed by action name for each handled mime-type.
+   * @return an unmodifiable map.
+   */
+  Map<String, Map<String, String>> getUrlsByMimeType() {
+    return urlsByMimeType;
+  }
+
+  /**
+   * Gets the editor URLs indexed by action name for each handled extension.
+   * @return an unmodifiable map.
+   */
+  Map<String, Map<String, String>> getUrlsByExtension() {
+    return urlsByExtension;
+  }
+
+  /**
+   * An action of a discovery.
+   */
+  public static class Entry {
+    private final String mimeType;
+    private final String action;
+    private final String extension;
+    private final String url;
+
+    private Entry(final String mimeType, final String action, final String extension,
+        final String url) {
+      this.mimeType = mimeType;
+      this.action = action;
+      this.extension = extension;
+      this.url = url;
+    }
+
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    public String getAction() {
+      return action;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+  }
+
+  /**
+   * The builder of a {@link WopiActionTable}.
+   */
+  public static class Builder {
+    private final List<Entry> entries = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * Adds an action to the table. An action without name or without editor URL is ignored.
+     * @param mimeType the handled mime-type.
+     * @param action the name of the action.
+     * @param extension the handled extension if any.
+     * @param url the URL of the editor performing the action.
+     * @return itself.
+     */
+    public Builder add(final String mimeType, final String action, final String extension,
+        final String url) {
+      if (isDefined(action) && isDefined(url)) {
+        entries.add(new Entry(mimeType, action, isDefined(extension) ? extension : null, url));
+      }
+      return this;
+    }
+
+    /**
+     * Builds the table.
+     * @return a new {@link WopiActionTable} instance.
+     */
+    public WopiActionTable build() {
+      final Map<String, Map<String, String>> byMimeType = new HashMap<>();
+      final Map<String, Map<String, String>> byExtension = new HashMap<>();
+      for (final Entry entry : entries) {
+        if (isDefined(entry.mimeType)) {
+          byMimeType.computeIfAbsent(entry.mimeType, k -> new HashMap<>())
+              .put(entry.action, entry.url);
+        }
+        if (entry.extension != null) {
+          byExtension.computeIfAbsent(entry.extension, k -> new HashMap<>())
+              .put(entry.action, entry.url);
+        }
+      }
+      for (final Entry entry : entries) {
+        if (isDefined(entry.mimeType) && entry.action.contains(EDIT)) {
+          byMimeType.get(entry.mimeType).put(EDIT, entry.url);
+        }
+      }
+      byMimeType.replaceAll((k, v) -> unmodifiableMap(v));
+      byExtension.replaceAll((k, v) -> unmodifiableMap(v));
+      return new WopiActionTable(new ArrayList<>(entries), byMimeType, byExtension);
+    }
+  }
+}
@@ -52,6 +52,8 @@ import java.util.function.BiConsumer;
 public class WopiDiscovery implements Serializable {
   private static final long serialVersionUID = -4834847364477784378L;
 
+  private static volatile JAXBContext jaxbContext;
+
   @XmlElement(name = "net-zone")
   private NetZone netZone;
 
@@ -66,13 +68,35 @@ public class WopiDiscovery implements Serializable {
             .forEach(ac -> consumer.accept(ap.getName(), ac)));
   }
 
+  /**
+   * Loads the whole object graph of the given discovery XML content.
+   * <p>
+   *   When only the actions are needed, {@link WopiDiscoveryReader} should be preferred.
+   * </p>
+   * @param in the discovery XML content.
+   * @return the loaded {@link WopiDiscovery}.
+   */
   public static WopiDiscovery load(InputStream in) {
     try {
-      final JAXBContext context = JAXBContext.newInstance(WopiDiscovery.class);
-      final Unmarshaller unmarshaller = context.createUnmarshaller();
+      final Unmarshaller unmarshaller = getJaxbContext().createUnmarshaller();
       return (WopiDiscovery) unmarshaller.unmarshal(in);
     } catch (JAXBException e) {
       throw new SilverpeasRuntimeException(e.getMessage(), e);
     }
   }
+
+  /**
+   * The JAXB context is thread-safe and very expensive to create, so it is shared by all the
+   * loads.
+   * @return the {@link JAXBContext} of the discovery.
+   * @throws JAXBException on context creation error.
+   */
+  private static JAXBContext getJaxbContext() throws JAXBException {
+    JAXBContext context = jaxbContext;
+    if (context == null) {
+      context = JAXBContext.newInstance(WopiDiscovery.class);
+      jaxbContext = context;
+    }
+    return context;
+  }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import org.silverpeas.kernel.SilverpeasRuntimeException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * A streaming reader of a discovery XML description file.
+ * <p>
+ *   Unlike {@link WopiDiscovery#load(InputStream)}, the reader does not build the object graph
+ *   of the discovery ({@link NetZone}, {@link App} and {@link Action}). Each action is directly
+ *   given to an {@link ActionConsumer} as soon as it is read, so the lookup tables of the
+ *   capabilities can be filled without any intermediate allocation.
+ * </p>
+ * @author silveryocha
+ */
+public class WopiDiscoveryReader {
+
+  private static final String APP_ELEMENT = "app";
+  private static final String ACTION_ELEMENT = "action";
+  private static final String NAME_ATTRIBUTE = "name";
+  private static final String EXT_ATTRIBUTE = "ext";
+  private static final String URLSRC_ATTRIBUTE = "urlsrc";
+
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  private WopiDiscoveryReader() {
+  }
+
+  /**
+   * Reads the given discovery XML content and gives each of its actions to the given consumer.
+   * @param in the discovery XML content.
+   * @param consumer the consumer of the actions.
+   */
+  public static void read(final InputStream in, final ActionConsumer consumer) {
+    XMLStreamReader reader = null;
+    try {
+      reader = FACTORY.createXMLStreamReader(in);
+      String appName = null;
+      while (reader.hasNext()) {
+        final int event = reader.next();
+        if (event == START_ELEMENT) {
+          final String element = reader.getLocalName();
+          if (APP_ELEMENT.equals(element)) {
+            appName = reader.getAttributeValue(null, NAME_ATTRIBUTE);
+          } else if (ACTION_ELEMENT.equals(element) && appName != null) {
+            consumer.accept(appName,
+                reader.getAttributeValue(null, NAME_ATTRIBUTE),
+                reader.getAttributeValue(null, EXT_ATTRIBUTE),
+                reader.getAttributeValue(null, URLSRC_ATTRIBUTE));
+          }
+        } else if (event == END_ELEMENT && APP_ELEMENT.equals(reader.getLocalName())) {
+          appName = null;
+        }
+      }
+    } catch (XMLStreamException e) {
+      throw new SilverpeasRuntimeException(e.getMessage(), e);
+    } finally {
+      close(reader);
+    }
+  }
+
+  private static void close(final XMLStreamReader reader) {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (XMLStreamException e) {
+        throw new SilverpeasRuntimeException(e.getMessage(), e);
+      }
+    }
+  }
+
+  private static XMLInputFactory createFactory() {
+    final XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    return factory;
+  }
+
+  /**
+   * A consumer of the actions read from a discovery XML content.
+   */
+  @FunctionalInterface
+  public interface ActionConsumer {
+
+    /**
+     * Consumes an action.
+     * @param appName the name of the application of the action, that is the handled mime-type.
+     * @param actionName the name of the action (view, edit, ...).
+     * @param ext the file extension handled by the action if any.
+     * @param urlsrc the URL of the editor performing the action.
+     */
+    void accept(String appName, String actionName, String ext, String urlsrc);
+  }
+}
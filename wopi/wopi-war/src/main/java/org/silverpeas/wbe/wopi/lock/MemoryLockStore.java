@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.lock;
+
+import javax.enterprise.inject.Vetoed;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link WopiLockStore} keeping the locks in memory, for a single node deployment.
+ * <p>
+ *   It is created from the settings only, and not discovered as a CDI bean.
+ * </p>
+ * @author silveryocha
+ */
+@Vetoed
+public class MemoryLockStore implements WopiLockStore {
+
+  private final Map<String, WopiLock> locks = new ConcurrentHashMap<>();
+
+  @Override
+  public boolean isShared() {
+    return false;
+  }
+
+  @Override
+  public Optional<WopiLock> get(final String fileId) {
+    return Optional.ofNullable(locks.get(fileId));
+  }
+
+  @Override
+  public boolean compareAndSet(final String fileId, final WopiLock expected,
+      final WopiLock update) {
+    final boolean[] set = {false};
+    locks.compute(fileId, (k, current) -> {
+      if (!Objects.equals(current, expected)) {
+        return current;
+      }
+      set[0] = true;
+      return update;
+    });
+    return set[0];
+  }
+
+  @Override
+  public void refresh(final Collection<WopiLock> refreshed) {
+    refreshed.forEach(r -> locks.computeIfPresent(r.getFileId(),
+        (k, current) -> current.hasDigest(r.getDigest()) ? r : current));
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.lock;
+
+import javax.enterprise.inject.Vetoed;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.text.MessageFormat.format;
+import static org.silverpeas.core.wbe.WbeLogger.logger;
+
+/**
+ * A {@link WopiLockStore} keeping the locks into a directory shared by all the nodes of a
+ * cluster.
+ * <p>
+ *   The lock of a file is kept into its own small file of the directory, named after the
+ *   identifier of the file. Each access to it is done while holding an exclusive lock on it
+ *   from the file system, so the compare-and-set operations are atomic between the nodes as
+ *   long as the shared file system supports such locks (a local one, or NFS with its lock
+ *   service for example). The file contains the expiration of the lock in epoch milliseconds
+ *   on a first line, the digest of the identifier of the lock on a second line, followed by the
+ *   identifier of the lock itself. An unlocked file is represented
+ *   by an empty file, which is never deleted as another node could be waiting for its lock.
+ * </p>
+ * <p>
+ *   It is created from the settings only, and not discovered as a CDI bean.
+ * </p>
+ * @author silveryocha
+ */
+@Vetoed
+public class SharedFileLockStore implements WopiLockStore {
+
+  private static final int LOCK_STRIPES = 64;
+  private static final String SUFFIX = ".lock";
+
+  // the locks of the file system are held by the JVM, so the threads of all the stores of the
+  // JVM are serialized apart
+  private static final ReentrantLock[] STRIPES = new ReentrantLock[LOCK_STRIPES];
+
+  static {
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      STRIPES[i] = new ReentrantLock();
+    }
+  }
+
+  private final Path directory;
+
+  /**
+   * Constructs a store of locks into the given directory.
+   * @param directory the path of a directory shared by all the nodes.
+   */
+  public SharedFileLockStore(final Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public boolean isShared() {
+    return true;
+  }
+
+  @Override
+  public Optional<WopiLock> get(final String fileId) {
+    final Path file = pathOf(fileId);
+    if (!Files.isRegularFile(file)) {
+      return Optional.empty();
+    }
+    return access(fileId, channel -> read(fileId, channel));
+  }
+
+  @Override
+  public boolean compareAndSet(final String fileId, final WopiLock expected,
+      final WopiLock update) {
+    return access(fileId, channel -> {
+      if (!Objects.equals(read(fileId, channel).orElse(null), expected)) {
+        return false;
+      }
+      write(channel, update);
+      return true;
+    });
+  }
+
+  @Override
+  public void refresh(final Collection<WopiLock> locks) {
+    for (final WopiLock refreshed : locks) {
+      if (!Files.isRegularFile(pathOf(refreshed.getFileId()))) {
+        continue;
+      }
+      access(refreshed.getFileId(), channel -> {
+        final Optional<WopiLock> current = read(refreshed.getFileId(), channel);
+        if (current.isPresent() && current.get().hasDigest(refreshed.getDigest())) {
+          write(channel, refreshed);
+        }
+        return null;
+      });
+    }
+  }
+
+  private <T> T access(final String fileId, final Access<T> access) {
+    final ReentrantLock stripe = STRIPES[Math.floorMod(fileId.hashCode(), LOCK_STRIPES)];
+    stripe.lock();
+    try {
+      Files.createDirectories(directory);
+      try (final FileChannel channel = FileChannel.open(pathOf(fileId), CREATE, READ, WRITE);
+           final FileLock ignored = channel.lock()) {
+        return access.apply(channel);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      stripe.unlock();
+    }
+  }
+
+  private Optional<WopiLock> read(final String fileId, final FileChannel channel)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+    channel.position(0);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // reading the whole content
+    }
+    final String content = new String(buffer.array(), 0, buffer.position(), UTF_8);
+    final int first = content.indexOf('\n');
+    final int second = first < 0 ? -1 : content.indexOf('\n', first + 1);
+    if (second < 0) {
+      return Optional.empty();
+    }
+    try {
+      final Instant expiration = Instant.ofEpochMilli(Long.parseLong(content.substring(0, first)));
+      return Optional.of(WopiLock.of(fileId, content.substring(second + 1),
+          content.substring(first + 1, second), expiration));
+    } catch (NumberFormatException e) {
+      logger().warn(() -> format("ignoring corrupted WOPI lock of file {0}", fileId));
+      return Optional.empty();
+    }
+  }
+
+  private void write(final FileChannel channel, final WopiLock lock) throws IOException {
+    channel.truncate(0);
+    if (lock != null) {
+      final String content = String.join("\n",
+          String.valueOf(lock.getExpiration().toEpochMilli()), lock.getDigest(), lock.getLockId());
+      final ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(UTF_8));
+      channel.position(0);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+    channel.force(false);
+  }
+
+  private Path pathOf(final String fileId) {
+    return directory.resolve(
+        Base64.getUrlEncoder().withoutPadding().encodeToString(fileId.getBytes(UTF_8)) + SUFFIX);
+  }
+
+  @FunctionalInterface
+  private interface Access<T> {
+    T apply(FileChannel channel) throws IOException;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.lock;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static org.silverpeas.wbe.wopi.util.Digests.sha256;
+import static org.silverpeas.wbe.wopi.util.Digests.toBase64Url;
+
+/**
+ * A WOPI lock of a file as kept by a {@link WopiLockStore}.
+ * <p>
+ *   The identifier of a lock can be very long (the WOPI clients supporting extended lock lengths
+ *   send JSON payloads of several kilobytes), so a fixed size digest of it is kept next to it.
+ *   The locks are compared by their digest, and a lock may even be known only by its digest,
+ *   when it is rebuilt from the lock set on the file. The identifier is then filled at the next
+ *   refresh of the lock.
+ * </p>
+ * <p>
+ *   The expiration instant is kept with a millisecond precision, so a lock read from a store is
+ *   equal to the one which has been written into it.
+ * </p>
+ * @author silveryocha
+ */
+public class WopiLock {
+
+  private final String fileId;
+  private final String lockId;
+  private final String digest;
+  private final Instant expiration;
+
+  /**
+   * Initializes a lock.
+   * @param fileId the identifier of the locked file.
+   * @param lockId the identifier of the lock given by the WOPI client.
+   * @param expiration the instant at which the lock expires unless it is refreshed.
+   */
+  public WopiLock(final String fileId, final String lockId, final Instant expiration) {
+    this(fileId, Objects.toString(lockId, ""), digestOf(lockId), expiration);
+  }
+
+  private WopiLock(final String fileId, final String lockId, final String digest,
+      final Instant expiration) {
+    this.fileId = fileId;
+    this.lockId = lockId;
+    this.digest = digest;
+    this.expiration = expiration.truncatedTo(MILLIS);
+  }
+
+  /**
+   * Initializes a lock of which only the digest of the identifier is known.
+   * @param fileId the identifier of the locked file.
+   * @param digest the digest of the identifier of the lock.
+   * @param expiration the instant at which the lock expires unless it is refreshed.
+   * @return a {@link WopiLock} instance.
+   */
+  public static WopiLock ofDigest(final String fileId, final String digest,
+      final Instant expiration) {
+    return new WopiLock(fileId, "", digest, expiration);
+  }
+
+  /**
+   * Initializes a lock of which both the identifier and its digest are given, as read from a
+   * store.
+   * @param fileId the identifier of the locked file.
+   * @param lockId the identifier of the lock, empty if unknown.
+   * @param digest the digest of the identifier of the lock.
+   * @param expiration the instant at which the lock expires unless it is refreshed.
+   * @return a {@link WopiLock} instance.
+   */
+  public static WopiLock of(final String fileId, final String lockId, final String digest,
+      final Instant expiration) {
+    return new WopiLock(fileId, lockId, digest, expiration);
+  }
+
+  /**
+   * Computes the digest of the given lock identifier.
+   * @param lockId the identifier of a lock, null being considered as an empty one.
+   * @return the URL-safe base 64 encoding of a SHA-256 digest.
+   */
+  public static String digestOf(final String lockId) {
+    return toBase64Url(sha256(Objects.toString(lockId, "")));
+  }
+
+  public String getFileId() {
+    return fileId;
+  }
+
+  /**
+   * Gets the identifier of the lock.
+   * @return the identifier of the lock, empty if only its digest is known.
+   */
+  public String getLockId() {
+    return lockId;
+  }
+
+  public String getDigest() {
+    return digest;
+  }
+
+  public Instant getExpiration() {
+    return expiration;
+  }
+
+  /**
+   * Indicates if the lock has the identifier of given digest.
+   * @param lockDigest the digest of a lock identifier.
+   * @return true if the lock has the same digest, false otherwise.
+   */
+  public boolean hasDigest(final String lockDigest) {
+    return digest.equals(lockDigest);
+  }
+
+  /**
+   * Indicates if the lock has expired at the given instant.
+   * @param instant an instant.
+   * @return true if expired, false otherwise.
+   */
+  public boolean isExpiredAt(final Instant instant) {
+    return !expiration.isAfter(instant);
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final WopiLock other = (WopiLock) o;
+    // a known identifier is given by its digest
+    return fileId.equals(other.fileId) && digest.equals(other.digest) &&
+        lockId.isEmpty() == other.lockId.isEmpty() && expiration.equals(other.expiration);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(fileId, digest, expiration);
+  }
+
+  @Override
+  public String toString() {
+    return "WopiLock{" + "fileId='" + fileId + '\'' + ", digest='" + digest + '\'' +
+        ", expiration=" + expiration + '}';
+  }
+}
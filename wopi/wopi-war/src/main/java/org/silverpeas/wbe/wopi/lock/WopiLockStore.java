@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.lock;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * The store of the WOPI locks of the files.
+ * <p>
+ *   The lock of a file is only modified by a compare-and-set, so the stores shared by several
+ *   nodes of a cluster give a consistent lock state without requiring the WOPI requests about a
+ *   same file to be always sent to the same node. The store keeps the expiration of each lock,
+ *   but it does not expire anything by itself: an expired lock is removed by the lock manager
+ *   with a compare-and-set.
+ * </p>
+ * <p>
+ *   A store is provided by the settings (see {@link MemoryLockStore} and
+ *   {@link SharedFileLockStore}, which are vetoed as CDI beans), unless an implementation is
+ *   provided as a CDI bean (one backed by a database for example).
+ * </p>
+ * @author silveryocha
+ */
+public interface WopiLockStore {
+
+  /**
+   * Indicates if the locks are shared by all the nodes and survive a restart.
+   * <p>
+   *   When they are not, a lock found on a file without being known by the store (after a
+   *   restart for example) is taken into the store instead of being cleared.
+   * </p>
+   * @return true if the locks are shared, false otherwise.
+   */
+  boolean isShared();
+
+  /**
+   * Gets the lock of the file of given identifier, even if it has expired.
+   * @param fileId the identifier of a file.
+   * @return an optional {@link WopiLock}.
+   */
+  Optional<WopiLock> get(String fileId);
+
+  /**
+   * Sets atomically the lock of the file of given identifier if its current lock is the
+   * expected one.
+   * @param fileId the identifier of a file.
+   * @param expected the expected current lock, null if the file is expected to be unlocked.
+   * @param update the new lock, null to unlock the file.
+   * @return true if the lock has been set, false if the current lock is not the expected one.
+   */
+  boolean compareAndSet(String fileId, WopiLock expected, WopiLock update);
+
+  /**
+   * Replaces each of the given locks, provided that its file is still locked with the same lock
+   * identifier (compared by their digest), so its expiration is extended. The refreshes are
+   * batched by the lock manager, so they are given all at once.
+   * @param locks the refreshed locks.
+   */
+  void refresh(Collection<WopiLock> locks);
+}
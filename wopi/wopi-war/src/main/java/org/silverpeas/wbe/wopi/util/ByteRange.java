@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import java.util.Optional;
+
+import static java.util.Optional.empty;
+import static org.silverpeas.kernel.util.StringUtil.isDefined;
+
+/**
+ * A single range of bytes of a content, as requested by a HTTP <code>Range</code> header.
+ * <p>
+ *   Only the single byte ranges are handled. A header requesting several ranges, or which is
+ *   not well-formed, is ignored as permitted by the HTTP specification, so the whole content is
+ *   sent.
+ * </p>
+ * @author silveryocha
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc7233">RFC 7233, HTTP range requests</a>
+ */
+public class ByteRange {
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  private final long first;
+  private final long last;
+
+  private ByteRange(final long first, final long last) {
+    this.first = first;
+    this.last = last;
+  }
+
+  /**
+   * Gets the range covering the whole content of given length.
+   * @param length the length of the content.
+   * @return a {@link ByteRange} instance.
+   */
+  public static ByteRange all(final long length) {
+    return new ByteRange(0, length - 1);
+  }
+
+  /**
+   * Parses the given <code>Range</code> header value against a content of given length.
+   * @param header the value of the <code>Range</code> header, may be null.
+   * @param length the length of the content.
+   * @return an optional {@link ByteRange}, empty if no range has to be applied.
+   * @throws IllegalArgumentException if the range cannot be satisfied with the content, in which
+   * case a <code>416 Range Not Satisfiable</code> response is expected.
+   */
+  public static Optional<ByteRange> parse(final String header, final long length) {
+    if (!isDefined(header) || !header.startsWith(BYTES_UNIT)) {
+      return empty();
+    }
+    final String spec = header.substring(BYTES_UNIT.length()).trim();
+    final int dash = spec.indexOf('-');
+    if (dash < 0 || spec.indexOf(',') >= 0) {
+      return empty();
+    }
+    final long first;
+    final long last;
+    try {
+      final String start = spec.substring(0, dash).trim();
+      final String end = spec.substring(dash + 1).trim();
+      if (start.isEmpty()) {
+        final long suffixLength = Long.parseLong(end);
+        if (suffixLength <= 0 || length == 0) {
+          throw new IllegalArgumentException("unsatisfiable range " + header);
+        }
+        first = Math.max(0, length - suffixLength);
+        last = length - 1;
+      } else {
+        first = Long.parseLong(start);
+        last = end.isEmpty() ? length - 1 : Math.min(Long.parseLong(end), length - 1);
+        if (first < 0 || (!end.isEmpty() && Long.parseLong(end) < first)) {
+          return empty();
+        }
+      }
+    } catch (NumberFormatException e) {
+      return empty();
+    }
+    if (first >= length) {
+      throw new IllegalArgumentException("unsatisfiable range " + header);
+    }
+    return Optional.of(new ByteRange(first, last));
+  }
+
+  /**
+   * Gets the position of the first byte of the range.
+   * @return a position from 0.
+   */
+  public long getFirst() {
+    return first;
+  }
+
+  /**
+   * Gets the position of the last byte of the range, inclusive.
+   * @return a position from 0.
+   */
+  public long getLast() {
+    return last;
+  }
+
+  /**
+   * Gets the number of bytes of the range.
+   * @return a number of bytes.
+   */
+  public long getLength() {
+    return last - first + 1;
+  }
+
+  /**
+   * Gets the value of the <code>Content-Range</code> header of the response.
+   * @param length the length of the whole content.
+   * @return a string.
+   */
+  public String toContentRange(final long length) {
+    return "bytes " + first + "-" + last + "/" + length;
+  }
+
+  @Override
+  public String toString() {
+    return first + "-" + last;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An immutable consistent hash ring distributing keys over a set of nodes.
+ * <p>
+ *   Each node is placed several times on the ring (virtual nodes) in order to spread the keys
+ *   evenly. A key is given to the first eligible node found clockwise from the position of the
+ *   key on the ring. So a given key is always given to the same node as long as this node is
+ *   eligible, and when a node is not eligible anymore, only its keys are moved to other nodes.
+ * </p>
+ * <p>
+ *   The positions are computed with a hash function which is stable between JVMs, so all the
+ *   servers of a cluster give the same key to the same node.
+ * </p>
+ * @param <T> the type of the nodes.
+ * @author silveryocha
+ */
+public class ConsistentHashRing<T> {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final long[] positions;
+  private final List<T> nodes;
+
+  /**
+   * Constructs a ring with the given nodes.
+   * @param nodes the nodes to place on the ring.
+   * @param identifier the function giving the unique and stable identifier of a node.
+   * @param virtualNodes the number of positions of each node on the ring.
+   */
+  public ConsistentHashRing(final Collection<T> nodes, final Function<T, String> identifier,
+      final int virtualNodes) {
+    final List<Position<T>> ring = new ArrayList<>(nodes.size() * virtualNodes);
+    for (final T node : nodes) {
+      final String id = identifier.apply(node);
+      for (int i = 0; i < virtualNodes; i++) {
+        ring.add(new Position<>(hash(id + "#" + i), node));
+      }
+    }
+    ring.sort(Comparator.comparingLong(p -> p.hash));
+    this.positions = new long[ring.size()];
+    this.nodes = new ArrayList<>(ring.size());
+    for (int i = 0; i < ring.size(); i++) {
+      this.positions[i] = ring.get(i).hash;
+      this.nodes.add(ring.get(i).node);
+    }
+  }
+
+  /**
+   * Selects the node of the given key.
+   * @param key a key.
+   * @param eligible the predicate a node MUST satisfy to be selected.
+   * @return the optional selected node, empty if no eligible node.
+   */
+  public Optional<T> select(final String key, final Predicate<T> eligible) {
+    if (positions.length == 0) {
+      return Optional.empty();
+    }
+    int start = Arrays.binarySearch(positions, hash(key));
+    if (start < 0) {
+      start = -start - 1;
+    }
+    for (int i = 0; i < positions.length; i++) {
+      final T node = nodes.get((start + i) % positions.length);
+      if (eligible.test(node)) {
+        return Optional.of(node);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Indicates if the ring contains no node.
+   * @return true if empty, false otherwise.
+   */
+  public boolean isEmpty() {
+    return positions.length == 0;
+  }
+
+  /**
+   * Computes a 64 bits FNV-1a hash of the given key, mixed in order to spread close keys.
+   * @param key a key.
+   * @return a hash.
+   */
+  static long hash(final String key) {
+    long hash = FNV_OFFSET_BASIS;
+    for (final byte b : key.getBytes(UTF_8)) {
+      hash ^= (b & 0xff);
+      hash *= FNV_PRIME;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static class Position<T> {
+    private final long hash;
+    private final T node;
+
+    private Position(final long hash, final T node) {
+      this.hash = hash;
+      this.node = node;
+    }
+  }
+}
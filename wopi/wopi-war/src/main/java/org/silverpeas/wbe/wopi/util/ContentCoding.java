@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.util.Optional.empty;
+import static org.silverpeas.kernel.util.StringUtil.isDefined;
+
+/**
+ * The content codings negotiated for the file transfers between the WOPI host and the WOPI
+ * client servers.
+ * <p>
+ *   Only gzip is used to encode the sent contents, as it is the single coding handled by the JDK.
+ *   And only the uncompressed formats are encoded, like the flat XML ODF documents or the CSV
+ *   files: the ZIP based formats of the office documents (ODF, OOXML) and the media are already
+ *   compressed, so encoding them again would only waste CPU.
+ * </p>
+ * @author silveryocha
+ */
+public class ContentCoding {
+
+  /**
+   * The gzip content coding.
+   */
+  public static final String GZIP = "gzip";
+
+  private static final String DEFLATE = "deflate";
+  private static final String IDENTITY = "identity";
+  private static final Set<String> COMPRESSIBLE_APPLICATION_TYPES = Set.of(
+      "application/json", "application/xml", "application/rtf", "application/x-sh",
+      "application/javascript", "application/sql");
+
+  private ContentCoding() {
+  }
+
+  /**
+   * Indicates if a content of the given mime-type is worth to be compressed.
+   * @param mimeType a mime-type.
+   * @return true if the format of the content is not a compressed one, false otherwise.
+   */
+  public static boolean isCompressible(final String mimeType) {
+    if (!isDefined(mimeType)) {
+      return false;
+    }
+    final String type = mimeType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+    return type.startsWith("text/") || type.endsWith("+xml") || type.endsWith("-flat-xml") ||
+        COMPRESSIBLE_APPLICATION_TYPES.contains(type);
+  }
+
+  /**
+   * Indicates if the gzip coding is accepted according to the given <code>Accept-Encoding</code>
+   * header value.
+   * @param acceptEncoding the value of the <code>Accept-Encoding</code> header, may be null.
+   * @return true if gzip is accepted, false otherwise.
+   */
+  public static boolean isGzipAccepted(final String acceptEncoding) {
+    if (!isDefined(acceptEncoding)) {
+      return false;
+    }
+    Optional<Boolean> wildcard = empty();
+    for (final String coding : acceptEncoding.split(",")) {
+      final String[] parts = coding.split(";");
+      final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+      final boolean accepted = Stream.of(parts)
+          .skip(1)
+          .map(String::trim)
+          .filter(p -> p.startsWith("q="))
+          .findFirst()
+          .map(ContentCoding::isPositiveQuality)
+          .orElse(true);
+      if (GZIP.equals(name) || "x-gzip".equals(name)) {
+        return accepted;
+      } else if ("*".equals(name)) {
+        wildcard = Optional.of(accepted);
+      }
+    }
+    return wildcard.orElse(false);
+  }
+
+  /**
+   * Decodes the given content according to the given <code>Content-Encoding</code> header
+   * value.
+   * @param content the encoded content.
+   * @param contentEncoding the value of the <code>Content-Encoding</code> header, may be null.
+   * @return the decoded content.
+   * @throws IOException on an I/O error.
+   * @throws IllegalArgumentException if the coding is not handled.
+   */
+  public static InputStream decode(final InputStream content, final String contentEncoding)
+      throws IOException {
+    if (!isDefined(contentEncoding)) {
+      return content;
+    }
+    final String coding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+    if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+      return new GZIPInputStream(content, 8192);
+    } else if (DEFLATE.equals(coding)) {
+      return new InflaterInputStream(content);
+    } else if (IDENTITY.equals(coding)) {
+      return content;
+    }
+    throw new IllegalArgumentException("unsupported content coding " + contentEncoding);
+  }
+
+  private static boolean isPositiveQuality(final String quality) {
+    try {
+      return Double.parseDouble(quality.substring(2).trim()) > 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The SHA-256 digests computed by the WOPI host: the digests of the saved contents, of the lock
+ * identifiers, of the file versions and of the discovered capabilities.
+ * @author silveryocha
+ */
+public class Digests {
+
+  private static final String SHA_256 = "SHA-256";
+
+  private Digests() {
+  }
+
+  /**
+   * Gets a new SHA-256 message digest.
+   * @return a {@link MessageDigest} instance.
+   */
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance(SHA_256);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Computes the SHA-256 digest of the given text encoded in UTF-8.
+   * @param text a text.
+   * @return the bytes of the digest.
+   */
+  public static byte[] sha256(final String text) {
+    return sha256().digest(text.getBytes(UTF_8));
+  }
+
+  /**
+   * Gets the hexadecimal representation of the given digest.
+   * @param digest the bytes of a digest.
+   * @return a lower case hexadecimal string.
+   */
+  public static String toHex(final byte[] digest) {
+    final StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (final byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Gets the URL-safe base 64 representation, without padding, of the given digest.
+   * @param digest the bytes of a digest.
+   * @return a base 64 string.
+   */
+  public static String toBase64Url(final byte[] digest) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A hashed timer wheel keeping deadlines by key.
+ * <p>
+ *   The time is divided into ticks and the wheel is made of a fixed number of slots, each
+ *   covering a tick. A deadline is put into the slot of the first tick at which it is reached,
+ *   so setting, moving or cancelling a deadline costs a constant time whatever the number of
+ *   deadlines. The wheel is advanced by a single caller which only visits the slots of the
+ *   elapsed ticks. A deadline beyond the span of the wheel simply stays in its slot for more
+ *   than one round.
+ * </p>
+ * <p>
+ *   The slot of a deadline is computed under the same monitor as the advance of the wheel, so
+ *   a deadline is never put into a slot which is being or has just been visited. The reached
+ *   deadlines are given to their consumer once the monitor released.
+ * </p>
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values attached to the deadlines.
+ * @author silveryocha
+ */
+public class TimerWheel<K, V> {
+
+  private final long tickMillis;
+  private final List<Set<Timer<K, V>>> slots;
+  private final Map<K, Timer<K, V>> timers = new ConcurrentHashMap<>();
+  private long lastTick;
+
+  /**
+   * Initializes a wheel.
+   * @param tick the duration of a tick, which is the precision of the wheel.
+   * @param size the number of slots of the wheel.
+   * @param start the time in milliseconds from which the wheel is advanced.
+   */
+  public TimerWheel(final Duration tick, final int size, final long start) {
+    this.tickMillis = tick.toMillis();
+    this.slots = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      slots.add(ConcurrentHashMap.newKeySet());
+    }
+    this.lastTick = start / tickMillis;
+  }
+
+  /**
+   * Sets the deadline of the given key, replacing any previous one.
+   * @param key a key.
+   * @param value the value to attach to the deadline.
+   * @param deadline the deadline as a time in milliseconds.
+   */
+  public synchronized void schedule(final K key, final V value, final long deadline) {
+    timers.compute(key, (k, timer) -> {
+      final Timer<K, V> current = timer != null ? timer : new Timer<>(k);
+      final int slot = slotOf(deadline);
+      if (current.slot != slot) {
+        if (current.slot >= 0) {
+          slots.get(current.slot).remove(current);
+        }
+        current.slot = slot;
+        slots.get(slot).add(current);
+      }
+      current.value = value;
+      current.deadline = deadline;
+      return current;
+    });
+  }
+
+  /**
+   * Cancels the deadline of the given key if any.
+   * @param key a key.
+   * @return optionally the value attached to the cancelled deadline.
+   */
+  public Optional<V> cancel(final K key) {
+    final List<V> cancelled = new ArrayList<>(1);
+    timers.computeIfPresent(key, (k, timer) -> {
+      slots.get(timer.slot).remove(timer);
+      cancelled.add(timer.value);
+      return null;
+    });
+    return cancelled.stream().findFirst();
+  }
+
+  /**
+   * Removes the deadline of the given key if it is reached.
+   * @param key a key.
+   * @param now the current time in milliseconds.
+   * @return optionally the value attached to the removed deadline.
+   */
+  public Optional<V> expire(final K key, final long now) {
+    final List<V> expired = new ArrayList<>(1);
+    timers.computeIfPresent(key, (k, timer) -> {
+      if (timer.deadline > now) {
+        return timer;
+      }
+      slots.get(timer.slot).remove(timer);
+      expired.add(timer.value);
+      return null;
+    });
+    return expired.stream().findFirst();
+  }
+
+  /**
+   * Indicates if a deadline is set for the given key.
+   * @param key a key.
+   * @return true if a deadline is set, false otherwise.
+   */
+  public boolean contains(final K key) {
+    return timers.containsKey(key);
+  }
+
+  /**
+   * Gets the number of deadlines set.
+   * @return a number of deadlines.
+   */
+  public int size() {
+    return timers.size();
+  }
+
+  /**
+   * Advances the wheel up to the given time. The deadlines reached within the elapsed ticks
+   * are removed and given to the specified consumer.
+   * @param now the current time in milliseconds.
+   * @param consumer the consumer of the keys and values of the reached deadlines.
+   */
+  public void advance(final long now, final BiConsumer<K, V> consumer) {
+    final Map<K, V> expired = new LinkedHashMap<>();
+    synchronized (this) {
+      final long nowTick = now / tickMillis;
+      final long from = Math.max(lastTick + 1, nowTick - slots.size() + 1);
+      final List<Timer<K, V>> reached = new ArrayList<>();
+      for (long tick = from; tick <= nowTick; tick++) {
+        for (final Timer<K, V> timer : slots.get(indexOf(tick))) {
+          if (timer.deadline <= now) {
+            reached.add(timer);
+          }
+        }
+      }
+      lastTick = Math.max(lastTick, nowTick);
+      for (final Timer<K, V> timer : reached) {
+        expire(timer.key, now).ifPresent(v -> expired.put(timer.key, v));
+      }
+    }
+    expired.forEach(consumer);
+  }
+
+  private int slotOf(final long deadline) {
+    // the first tick at which the deadline is reached, and never an already visited one
+    final long tick = Math.max((deadline + tickMillis - 1) / tickMillis, lastTick + 1);
+    return indexOf(tick);
+  }
+
+  private int indexOf(final long tick) {
+    return (int) Math.floorMod(tick, (long) slots.size());
+  }
+
+  private static class Timer<K, V> {
+    private final K key;
+    private V value;
+    private volatile long deadline;
+    private int slot = -1;
+
+    private Timer(final K key) {
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import org.silverpeas.core.util.URLUtil;
+import org.silverpeas.core.util.file.FileRepositoryManager;
+import org.silverpeas.kernel.SilverpeasRuntimeException;
+import org.silverpeas.kernel.bundle.ResourceLocator;
+import org.silverpeas.kernel.bundle.SettingBundle;
+import org.silverpeas.kernel.util.Pair;
+import org.silverpeas.kernel.util.StringUtil;
+
+import javax.ws.rs.core.UriBuilder;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Optional.empty;
+import static java.util.Optional.ofNullable;
+import static org.silverpeas.kernel.util.StringUtil.isDefined;
+
+/**
+ * An immutable snapshot of the WOPI settings.
+ * <p>
+ *   All the settings are read and parsed once into typed values, and the URLs of the WOPI client
+ *   servers are built at the same time. The current snapshot is given by {@link #get()}. It is
+ *   reloaded from the settings bundle at most every {@link #RELOAD_PERIOD}, so a modification of
+ *   the properties file is taken into account without any restart, and swapped atomically: a
+ *   treatment which gets the snapshot once works on consistent settings even if they are
+ *   modified in the meantime.
+ * </p>
+ * @author silveryocha
+ */
+public class WopiConfiguration {
+
+  /**
+   * The maximum delay before a modification of the properties file is taken into account.
+   */
+  public static final Duration RELOAD_PERIOD = Duration.ofSeconds(30);
+
+  private static final String SETTINGS_PATH = "org.silverpeas.wbe.wopi.wopiSettings";
+  private static final AtomicReference<WopiConfiguration> current = new AtomicReference<>();
+
+  private final long loadTime = System.nanoTime();
+  private final boolean enabled;
+  private final boolean lockCapabilityEnabled;
+  private final Path lockStorePath;
+  private final Pair<String, String> timestampVerificationElements;
+  private final String exitFieldNameDetection;
+  private final long putFileMaxSize;
+  private final Duration writeBehindQuietPeriod;
+  private final Duration writeBehindMaxDelay;
+  private final int writeBehindMaxPending;
+  private final int writeBehindThreads;
+  private final int postSaveThreads;
+  private final int postSaveMaxQueued;
+  private final Duration presenceWindow;
+  private final String hostServiceBaseUrl;
+  private final boolean contentCompressionEnabled;
+  private final long contentCompressionMinSize;
+  private final List<String> clientBaseUrls;
+  private final Map<String, String> clientDiscoveryUrls;
+  private final Map<String, String> clientHealthUrls;
+  private final String clientAdministrationUrl;
+  private final long discoveryTimeToLive;
+  private final boolean discoveryRefreshedInBackground;
+  private final Duration discoveryInitialRetryDelay;
+  private final Duration discoveryMaxRetryDelay;
+  private final Path discoverySnapshotPath;
+  private final Duration healthPeriod;
+  private final Duration healthMaxLatency;
+  private final double healthMaxErrorRate;
+  private final Pair<String, String> uiDefaults;
+  private final String discoveryPath;
+  private final String healthPath;
+
+  private WopiConfiguration(final SettingBundle settings) {
+    enabled = settings.getBoolean("wopi.enabled", false);
+    lockCapabilityEnabled = enabled && settings.getBoolean("wopi.lock.enabled", false);
+    final String lockStore = settings.getString("wopi.lock.store.path", "");
+    lockStorePath = isDefined(lockStore) ? Paths.get(lockStore) : null;
+    final String timestampField = settings.getString("wopi.putFile.timestamp.field", "");
+    timestampVerificationElements = enabled && isDefined(timestampField) ?
+        Pair.of(timestampField,
+            settings.getString("wopi.putFile.timestamp.conflict.json.response", "{}")) :
+        null;
+    final String exitField = settings.getString("wopi.client.exit.field", "");
+    exitFieldNameDetection = enabled && isDefined(exitField) ? exitField : null;
+    putFileMaxSize = settings.getLong("wopi.putFile.maxSize", 512) * 1024 * 1024;
+    writeBehindQuietPeriod =
+        Duration.ofSeconds(settings.getLong("wopi.putFile.writeBehind.quietPeriod", 0));
+    writeBehindMaxDelay =
+        Duration.ofSeconds(settings.getLong("wopi.putFile.writeBehind.maxDelay", 60));
+    writeBehindMaxPending = settings.getInteger("wopi.putFile.writeBehind.maxPending", 100);
+    writeBehindThreads = Math.max(1, settings.getInteger("wopi.putFile.writeBehind.threads", 2));
+    postSaveThreads = Math.max(1, settings.getInteger("wopi.putFile.postSave.threads", 2));
+    postSaveMaxQueued = settings.getInteger("wopi.putFile.postSave.maxQueued", 1000);
+    presenceWindow = Duration.ofMillis(settings.getLong("wopi.host.presence.window", 2000));
+    hostServiceBaseUrl = settings.getString("wopi.host.service.baseUrl",
+        URLUtil.getAbsoluteApplicationURL() + "/services/wbe/wopi/files");
+    contentCompressionEnabled =
+        settings.getBoolean("wopi.host.contents.compression.enabled", true);
+    contentCompressionMinSize =
+        settings.getLong("wopi.host.contents.compression.minSize", 1024);
+    clientBaseUrls = enabled ?
+        Stream.of(settings.getString("wopi.client.baseUrl", "").split("[, ]"))
+            .map(String::trim)
+            .filter(StringUtil::isDefined)
+            .distinct()
+            .collect(Collectors.toUnmodifiableList()) :
+        List.of();
+    discoveryPath = settings.getString("wopi.client.discovery.path", null);
+    healthPath = settings.getString("wopi.client.health.path", "/hosting/capabilities");
+    clientDiscoveryUrls = buildUrls(clientBaseUrls, discoveryPath);
+    clientHealthUrls = buildUrls(clientBaseUrls, healthPath);
+    clientAdministrationUrl = clientBaseUrls.stream()
+        .findFirst()
+        .flatMap(u -> buildUrl(u, settings.getString("wopi.client.admin.path", null)))
+        .orElse(null);
+    discoveryTimeToLive = settings.getLong("wopi.client.discovery.timeToLive", 12);
+    discoveryRefreshedInBackground =
+        settings.getBoolean("wopi.client.discovery.backgroundRefresh", true);
+    discoveryInitialRetryDelay =
+        Duration.ofSeconds(settings.getLong("wopi.client.discovery.retry.initialDelay", 30));
+    discoveryMaxRetryDelay =
+        Duration.ofSeconds(settings.getLong("wopi.client.discovery.retry.maxDelay", 3600));
+    final String snapshotPath = settings.getString("wopi.client.discovery.snapshot.path", "");
+    if (!settings.getBoolean("wopi.client.discovery.snapshot.enabled", true)) {
+      discoverySnapshotPath = null;
+    } else if (isDefined(snapshotPath)) {
+      discoverySnapshotPath = Paths.get(snapshotPath);
+    } else {
+      discoverySnapshotPath =
+          Paths.get(FileRepositoryManager.getTemporaryPath(), "wopi-discovery.snapshot");
+    }
+    healthPeriod = Duration.ofSeconds(settings.getLong("wopi.client.health.period", 30));
+    healthMaxLatency = Duration.ofMillis(settings.getLong("wopi.client.health.maxLatency", 2000));
+    healthMaxErrorRate = settings.getLong("wopi.client.health.maxErrorRate", 50) / 100.0;
+    final String uiDefaultsParamName = settings.getString("wopi.ui.defaults.param.name", null);
+    final String uiDefaultsValue = settings.getString("wopi.ui.defaults", null);
+    uiDefaults = isDefined(uiDefaultsParamName) && isDefined(uiDefaultsValue) ?
+        Pair.of(uiDefaultsParamName, uiDefaultsValue) :
+        null;
+  }
+
+  /**
+   * Gets the current snapshot of the WOPI settings, reloading it if it is older than
+   * {@link #RELOAD_PERIOD}.
+   * @return a {@link WopiConfiguration} instance.
+   */
+  public static WopiConfiguration get() {
+    final WopiConfiguration configuration = current.get();
+    if (configuration != null &&
+        System.nanoTime() - configuration.loadTime < RELOAD_PERIOD.toNanos()) {
+      return configuration;
+    }
+    final WopiConfiguration reloaded =
+        new WopiConfiguration(ResourceLocator.getSettingBundle(SETTINGS_PATH));
+    return current.compareAndSet(configuration, reloaded) ? reloaded : current.get();
+  }
+
+  /**
+   * Forces the reload of the WOPI settings at the next call of {@link #get()}.
+   */
+  public static void reload() {
+    current.set(null);
+  }
+
+  /**
+   * Indicates if WOPI is enabled.
+   * @return true if enabled, false otherwise.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Indicates if WOPI lock capability is enabled.
+   * @return true if enabled, false otherwise.
+   */
+  public boolean isLockCapabilityEnabled() {
+    return lockCapabilityEnabled;
+  }
+
+  /**
+   * Gets the path of the directory shared by the nodes of a cluster into which the WOPI locks
+   * are kept.
+   * @return an optional path, empty if the locks are kept in memory.
+   */
+  public Optional<Path> getLockStorePath() {
+    return ofNullable(lockStorePath);
+  }
+
+  /**
+   * Gets the elements for timestamp verification feature on put file operation.
+   * @return an optional pair containing on left the timestamp request header name and on right
+   * the JSON response in case of conflict.
+   */
+  public Optional<Pair<String, String>> getTimestampVerificationElements() {
+    return ofNullable(timestampVerificationElements);
+  }
+
+  /**
+   * Gets the field name to check in order to detected an editor close.
+   * @return an optional string.
+   */
+  public Optional<String> getExitFieldNameDetection() {
+    return ofNullable(exitFieldNameDetection);
+  }
+
+  /**
+   * Gets the maximum size of a file saved by a WOPI client.
+   * @return a number of bytes.
+   */
+  public long getPutFileMaxSize() {
+    return putFileMaxSize;
+  }
+
+  /**
+   * Gets the quiet period after which a save received from a WOPI client is committed to the
+   * storage.
+   * @return a {@link Duration}, zero if the saves are committed at once.
+   */
+  public Duration getWriteBehindQuietPeriod() {
+    return writeBehindQuietPeriod;
+  }
+
+  /**
+   * Gets the maximum delay before the first pending save of a file is committed, even if other
+   * saves are received meanwhile.
+   * @return a {@link Duration}.
+   */
+  public Duration getWriteBehindMaxDelay() {
+    return writeBehindMaxDelay;
+  }
+
+  /**
+   * Gets the maximum number of files with a pending save.
+   * @return a number of files.
+   */
+  public int getWriteBehindMaxPending() {
+    return writeBehindMaxPending;
+  }
+
+  /**
+   * Gets the number of threads committing the pending saves. It is taken into account only at
+   * the start of Silverpeas.
+   * @return a number of threads.
+   */
+  public int getWriteBehindThreads() {
+    return writeBehindThreads;
+  }
+
+  /**
+   * Gets the number of threads performing the treatments following the saves. It is taken into
+   * account only at the start of Silverpeas.
+   * @return a number of threads.
+   */
+  public int getPostSaveThreads() {
+    return postSaveThreads;
+  }
+
+  /**
+   * Gets the maximum number of treatments following the saves waiting to be performed. It is
+   * taken into account only at the start of Silverpeas.
+   * @return a number of treatments.
+   */
+  public int getPostSaveMaxQueued() {
+    return postSaveMaxQueued;
+  }
+
+  /**
+   * Gets the window during which the changes of the users editing a file are gathered before
+   * being notified.
+   * @return a {@link Duration}, zero if the changes are notified at once.
+   */
+  public Duration getPresenceWindow() {
+    return presenceWindow;
+  }
+
+  /**
+   * Gets the base URL of the WOPI host.
+   * @return a string.
+   */
+  public String getHostServiceBaseUrl() {
+    return hostServiceBaseUrl;
+  }
+
+  /**
+   * Indicates if the uncompressed file contents are sent encoded with gzip to the WOPI client
+   * servers accepting it.
+   * @return true if enabled, false otherwise.
+   */
+  public boolean isContentCompressionEnabled() {
+    return contentCompressionEnabled;
+  }
+
+  /**
+   * Gets the size from which a file content is worth to be compressed.
+   * @return a number of bytes.
+   */
+  public long getContentCompressionMinSize() {
+    return contentCompressionMinSize;
+  }
+
+  /**
+   * Gets the base URLs of all the WOPI client servers.
+   * @return an unmodifiable list of base URLs, empty if WOPI is not enabled or if no base URL
+   * is defined.
+   */
+  public List<String> getClientBaseUrls() {
+    return clientBaseUrls;
+  }
+
+  /**
+   * Gets the discovery URL of the WOPI client server of given base URL.
+   * @param baseUrl the base URL of a WOPI client server.
+   * @return a string.
+   */
+  public String getClientDiscoveryUrl(final String baseUrl) {
+    return getClientUrl(clientDiscoveryUrls, baseUrl, discoveryPath)
+        .orElseThrow(() -> new SilverpeasRuntimeException(
+            "wopi is not enabled or wopi.client.baseUrl or wopi.client.discovery.path are not " +
+                "defined"));
+  }
+
+  /**
+   * Gets the health URL of the WOPI client server of given base URL.
+   * @param baseUrl the base URL of a WOPI client server.
+   * @return a string.
+   */
+  public String getClientHealthUrl(final String baseUrl) {
+    return getClientUrl(clientHealthUrls, baseUrl, healthPath)
+        .orElseThrow(() -> new SilverpeasRuntimeException(
+            "wopi.client.health.path is not defined"));
+  }
+
+  /**
+   * Gets the WOPI client administration URL.
+   * @return an optional string, empty if WOPI is not enabled or if wopi.client.baseUrl or
+   * wopi.client.admin.path are not defined.
+   */
+  public Optional<String> getClientAdministrationUrl() {
+    return ofNullable(clientAdministrationUrl);
+  }
+
+  /**
+   * Gets the time to live in hours of the discovery cache.
+   * @return a number of hours as long.
+   */
+  public long getDiscoveryTimeToLive() {
+    return discoveryTimeToLive;
+  }
+
+  /**
+   * Indicates if an expired discovery is refreshed in background.
+   * @return true if the discovery is refreshed in background, false if the callers have to wait
+   * for the new discovery.
+   */
+  public boolean isDiscoveryRefreshedInBackground() {
+    return discoveryRefreshedInBackground;
+  }
+
+  /**
+   * Gets the delay before trying again a discovery after a first failure.
+   * @return a {@link Duration}.
+   */
+  public Duration getDiscoveryInitialRetryDelay() {
+    return discoveryInitialRetryDelay;
+  }
+
+  /**
+   * Gets the maximum delay before trying again a discovery after consecutive failures.
+   * @return a {@link Duration}.
+   */
+  public Duration getDiscoveryMaxRetryDelay() {
+    return discoveryMaxRetryDelay;
+  }
+
+  /**
+   * Gets the path of the file into which the last good discovery is persisted.
+   * @return an optional path, empty if the persistence of the discovery is disabled.
+   */
+  public Optional<Path> getDiscoverySnapshotPath() {
+    return ofNullable(discoverySnapshotPath);
+  }
+
+  /**
+   * Gets the period of the probes of the health of the WOPI client servers.
+   * @return a {@link Duration}, zero if the probes are disabled.
+   */
+  public Duration getHealthPeriod() {
+    return healthPeriod;
+  }
+
+  /**
+   * Gets the response latency from which a WOPI client server is considered as saturated.
+   * @return a {@link Duration}.
+   */
+  public Duration getHealthMaxLatency() {
+    return healthMaxLatency;
+  }
+
+  /**
+   * Gets the error rate from which a WOPI client server is considered as failing.
+   * @return a rate between 0 and 1.
+   */
+  public double getHealthMaxErrorRate() {
+    return healthMaxErrorRate;
+  }
+
+  /**
+   * Gets the UI defaults.
+   * @return an optional {@link Pair} containing the hidden parameter name on left and the UI
+   * defaults string on right.
+   */
+  public Optional<Pair<String, String>> getUIDefaults() {
+    return ofNullable(uiDefaults);
+  }
+
+  private static Optional<String> getClientUrl(final Map<String, String> urls,
+      final String baseUrl, final String path) {
+    return ofNullable(baseUrl).flatMap(u -> ofNullable(urls.get(u)).or(() -> buildUrl(u, path)));
+  }
+
+  private static Map<String, String> buildUrls(final List<String> baseUrls, final String path) {
+    final Map<String, String> urls = new LinkedHashMap<>(baseUrls.size());
+    baseUrls.forEach(u -> buildUrl(u, path).ifPresent(p -> urls.put(u, p)));
+    return unmodifiableMap(urls);
+  }
+
+  private static Optional<String> buildUrl(final String baseUrl, final String path) {
+    if (!isDefined(path)) {
+      return empty();
+    }
+    return Optional.of(baseUrl)
+        .map(UriBuilder::fromUri)
+        .map(b -> b.path(path))
+        .map(UriBuilder::build)
+        .map(URI::toString);
+  }
+}
@@ -24,27 +24,21 @@
 
 package org.silverpeas.wbe.wopi.util;
 
-import org.silverpeas.core.util.URLUtil;
 import org.silverpeas.kernel.SilverpeasRuntimeException;
-import org.silverpeas.kernel.bundle.ResourceLocator;
-import org.silverpeas.kernel.bundle.SettingBundle;
 import org.silverpeas.kernel.util.Pair;
-import org.silverpeas.kernel.util.StringUtil;
 
-import javax.ws.rs.core.UriBuilder;
-import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
-import static java.util.Optional.ofNullable;
-import static org.silverpeas.kernel.util.StringUtil.isDefined;
-
 /**
+ * Accessors to the WOPI settings. The values are read from the current
+ * {@link WopiConfiguration} snapshot.
  * @author silveryocha
  */
 public class WopiSettings {
 
-  private static final String SETTINGS_PATH = "org.silverpeas.wbe.wopi.wopiSettings";
-
   private WopiSettings() {
   }
 
@@ -53,7 +47,7 @@ public class WopiSettings {
    * @return true if enabled, false otherwise.
    */
   public static boolean isEnabled() {
-    return getSettings().getBoolean("wopi.enabled", false);
+    return configuration().isEnabled();
   }
 
   /**
@@ -61,7 +55,7 @@ public class WopiSettings {
    * @return true if enabled, false otherwise.
    */
   public static boolean isLockCapabilityEnabled() {
-    return isEnabled() && getSettings().getBoolean("wopi.lock.enabled", false);
+    return configuration().isLockCapabilityEnabled();
   }
 
   /**
@@ -70,12 +64,7 @@ public class WopiSettings {
    * the JSON response in case of conflict.
    */
   public static Optional<Pair<String, String>> getTimestampVerificationElements() {
-    return Optional.of(isEnabled())
-        .filter(b -> b)
-        .map(b -> Pair.of(
-            getSettings().getString("wopi.putFile.timestamp.field", ""),
-            getSettings().getString("wopi.putFile.timestamp.conflict.json.response", "{}")))
-        .filter(p -> isDefined(p.getFirst()));
+    return configuration().getTimestampVerificationElements();
   }
 
   /**
@@ -83,10 +72,7 @@ public class WopiSettings {
    * @return an optional string.
    */
   public static Optional<String> getExitFieldNameDetection() {
-    return Optional.of(isEnabled())
-        .filter(b -> b)
-        .map(b -> getSettings().getString("wopi.client.exit.field", ""))
-        .filter(StringUtil::isDefined);
+    return configuration().getExitFieldNameDetection();
   }
 
   /**
@@ -94,19 +80,28 @@ public class WopiSettings {
    * @return an string.
    */
   public static String getWopiHostServiceBaseUrl() {
-    return getSettings().getString("wopi.host.service.baseUrl",
-        URLUtil.getAbsoluteApplicationURL() + "/services/wbe/wopi/files");
+    return configuration().getHostServiceBaseUrl();
   }
 
   /**
-   * Gets the base URL of the WOPI client if any.
+   * Gets the base URL of the WOPI client if any. When several WOPI client servers are
+   * configured, the first one is returned.
    * @return an optional string.
    */
   public static Optional<String> getWopiClientBaseUrl() {
-    return Optional.of(WopiSettings.isEnabled())
-        .filter(b -> b)
-        .map(b -> getSettings().getString("wopi.client.baseUrl", null))
-        .filter(StringUtil::isDefined);
+    return getWopiClientBaseUrls().stream().findFirst();
+  }
+
+  /**
+   * Gets the base URLs of all the WOPI client servers.
+   * <p>
+   *   Several WOPI client servers can be configured by separating their base URL with a comma or
+   *   a space. The editions are then distributed over them.
+   * </p>
+   * @return a list of base URLs, empty if WOPI is not enabled or if no base URL is defined.
+   */
+  public static List<String> getWopiClientBaseUrls() {
+    return configuration().getClientBaseUrls();
   }
 
   /**
@@ -114,14 +109,16 @@ public class WopiSettings {
    * @return a string.
    */
   public static String getWopiClientDiscoveryUrl() {
-    return getWopiClientBaseUrl()
-        .map(UriBuilder::fromUri)
-        .map(b -> b.path(getSettings().getString("wopi.client.discovery.path")))
-        .map(UriBuilder::build)
-        .map(URI::toString)
-        .orElseThrow(() -> new SilverpeasRuntimeException(
-            "wopi is not enabled or wopi.client.baseUrl or wopi.client.discovery.path are not " +
-                "defined"));
+    return getWopiClientDiscoveryUrl(getWopiClientBaseUrl().orElse(null));
+  }
+
+  /**
+   * Gets the discovery URL of the WOPI client server of given base URL.
+   * @param baseUrl the base URL of a WOPI client server.
+   * @return a string.
+   */
+  public static String getWopiClientDiscoveryUrl(final String baseUrl) {
+    return configuration().getClientDiscoveryUrl(baseUrl);
   }
 
   /**
@@ -132,7 +129,100 @@ public class WopiSettings {
    * @return a number of hours as long.
    */
   public static long getWopiClientDiscoveryTimeToLive() {
-    return getSettings().getLong("wopi.client.discovery.timeToLive", 12);
+    return configuration().getDiscoveryTimeToLive();
+  }
+
+  /**
+   * Indicates if an expired discovery is refreshed in background.
+   * <p>
+   *   In that case, the last discovered capabilities are still used until the new ones are
+   *   fetched. true by default.
+   * </p>
+   * @return true if the discovery is refreshed in background, false if the callers have to wait
+   * for the new discovery.
+   */
+  public static boolean isWopiClientDiscoveryRefreshedInBackground() {
+    return configuration().isDiscoveryRefreshedInBackground();
+  }
+
+  /**
+   * Gets the delay before trying again a discovery after a first failure. This delay is doubled
+   * after each new consecutive failure, up to {@link #getWopiClientDiscoveryMaxRetryDelay()}.
+   * <p>
+   *   30 seconds by default.
+   * </p>
+   * @return a {@link Duration}.
+   */
+  public static Duration getWopiClientDiscoveryInitialRetryDelay() {
+    return configuration().getDiscoveryInitialRetryDelay();
+  }
+
+  /**
+   * Gets the maximum delay before trying again a discovery after consecutive failures.
+   * <p>
+   *   1 hour by default.
+   * </p>
+   * @return a {@link Duration}.
+   */
+  public static Duration getWopiClientDiscoveryMaxRetryDelay() {
+    return configuration().getDiscoveryMaxRetryDelay();
+  }
+
+  /**
+   * Gets the path of the file into which the last good discovery is persisted.
+   * <p>
+   *   By default, the file is located into the temporary directory of Silverpeas. In a cluster,
+   *   it should be a location shared by all the nodes.
+   * </p>
+   * @return an optional path, empty if the persistence of the discovery is disabled.
+   */
+  public static Optional<Path> getWopiClientDiscoverySnapshotPath() {
+    return configuration().getDiscoverySnapshotPath();
+  }
+
+  /**
+   * Gets the health URL of the WOPI client server of given base URL. It is probed regularly in
+   * order to detect the saturated or failing servers.
+   * @param baseUrl the base URL of a WOPI client server.
+   * @return a string.
+   */
+  public static String getWopiClientHealthUrl(final String baseUrl) {
+    return configuration().getClientHealthUrl(baseUrl);
+  }
+
+  /**
+   * Gets the period of the probes of the health of the WOPI client servers.
+   * <p>
+   *   30 seconds by default. A zero period disables the probes.
+   * </p>
+   * @return a {@link Duration}.
+   */
+  public static Duration getWopiClientHealthPeriod() {
+    return configuration().getHealthPeriod();
+  }
+
+  /**
+   * Gets the response latency from which a WOPI client server is considered as saturated. No
+   * new document is sent to a saturated server as long as other ones are not.
+   * <p>
+   *   2 seconds by default.
+   * </p>
+   * @return a {@link Duration}.
+   */
+  public static Duration getWopiClientHealthMaxLatency() {
+    return configuration().getHealthMaxLatency();
+  }
+
+  /**
+   * Gets the error rate from which a WOPI client server is considered as failing. No edition is
+   * sent to a failing server as long as other ones are not.
+   * <p>
+   *   50 percents by default.
+   * </p>
+   * @return a rate between 0 and 1.
+   */
+  public static double getWopiClientHealthMaxErrorRate() {
+    return configuration().getHealthMaxErrorRate();
   }
 
   /**
@@ -140,11 +230,7 @@ public class WopiSettings {
    * @return a string.
    */
   public static String getWopiClientAdministrationUrl() {
-    return getWopiClientBaseUrl()
-        .map(UriBuilder::fromUri)
-        .map(b -> b.path(getSettings().getString("wopi.client.admin.path")))
-        .map(UriBuilder::build)
-        .map(URI::toString)
+    return configuration().getClientAdministrationUrl()
         .orElseThrow(() -> new SilverpeasRuntimeException(
             "wopi is not enabled or wopi.client.baseUrl or wopi.client.admin.path are not " +
                 "defined"));
@@ -156,14 +242,15 @@ public class WopiSettings {
    * string on right.
    */
   public static Optional<Pair<String, String>> getUIDefaults() {
-    return ofNullable(getSettings().getString("wopi.ui.defaults.param.name", null))
-        .filter(StringUtil::isDefined)
-        .flatMap(n -> ofNullable(getSettings().getString("wopi.ui.defaults", null))
-            .filter(StringUtil::isDefined)
-            .map(d -> Pair.of(n, d)));
+    return configuration().getUIDefaults();
   }
 
-  private static SettingBundle getSettings() {
-    return ResourceLocator.getSettingBundle(SETTINGS_PATH);
+  /**
+   * Gets the current snapshot of the WOPI settings. A treatment needing several settings should
+   * get it once and work on it, so it gets consistent values at the lowest cost.
+   * @return a {@link WopiConfiguration} instance.
+   */
+  public static WopiConfiguration configuration() {
+    return WopiConfiguration.get();
   }
 }
@@ -22,14 +22,13 @@
   ~ along with this program.  If not, see <http://www.gnu.org/licenses/>.
   --%>
 <%@ page import="org.silverpeas.core.admin.user.model.User" %>
-<%@ page import="org.silverpeas.kernel.util.StringUtil" %>
 <%@ page import="org.silverpeas.wbe.wopi.util.WopiSettings" %>
 <%@page contentType="text/html; charset=UTF-8" pageEncoding="UTF-8" %>
 <%@ taglib uri="http://www.silverpeas.com/tld/viewGenerator" prefix="view" %>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
 <%@ taglib uri="http://www.silverpeas.com/tld/silverFunctions" prefix="silfn" %>
 
-<c:set var="origin" value='<%=WopiSettings.getWopiClientBaseUrl().orElse(StringUtil.EMPTY).replaceFirst("(https?://[^/]+)(.*)", "$1")%>'/>
+<c:set var="origin" value="${requestScope.WopiClientOrigin}"/>
 <c:set var="currentUser" value="<%=User.getCurrentRequester()%>"/>
 <c:set var="wbeUser" value="${requestScope.WopiUser}"/>
 <jsp:useBean id="wbeUser" type="org.silverpeas.core.wbe.WbeUser"/>
@@ -89,6 +88,7 @@
         // $iframe.setAttribute('sandbox', 'allow-scripts allow-same-origin allow-forms allow-modals allow-popups allow-top-navigation allow-popups-to-escape-sandbox');
         $container.appendChild($iframe);
 
+        let lastCurrentUserIds;
         window.addEventListener("message", function (event) {
           if ('${origin}' === event.origin && event.data) {
             let data = JSON.parse(event.data);
@@ -107,13 +107,17 @@
                     .map(function(view) {
                       return view['UserId'];
                     })
-                    .filter(function(id) {
-                      return id && id !== ''
+                    .filter(function(id, index, ids) {
+                      return id && id !== '' && ids.indexOf(id) === index;
                     })
+                    .sort()
                     .join(',');
-                HostMessageManager.post('SP_CURRENT_USERS', {
-                  'X-WOPI-ViewUserIds' : userIds
-                });
+                if (userIds !== lastCurrentUserIds) {
+                  lastCurrentUserIds = userIds;
+                  HostMessageManager.post('SP_CURRENT_USERS', {
+                    'X-WOPI-ViewUserIds' : userIds
+                  });
+                }
               }
             } else if ('UI_Close' === msgId) {
               window.top.close();
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.core.webapi.wbe.WbeFileWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * A file kept in memory, standing for a file of Silverpeas edited through WOPI.
+ * @author silveryocha
+ */
+class InMemoryWbeFile extends WbeFileWrapper {
+
+  private final String id;
+  private final String mimeType;
+  private final AtomicInteger loadCount = new AtomicInteger(0);
+  private final AtomicInteger updateCount = new AtomicInteger(0);
+  private volatile byte[] content;
+  private volatile OffsetDateTime lastModificationDate =
+      OffsetDateTime.of(2021, 6, 1, 10, 0, 0, 0, UTC);
+  private volatile IOException updateError;
+
+  InMemoryWbeFile(final String id, final String mimeType, final byte[] content) {
+    super((WbeFile) null);
+    this.id = id;
+    this.mimeType = mimeType;
+    this.content = content;
+  }
+
+  @Override
+  public String id() {
+    return id;
+  }
+
+  @Override
+  public String name() {
+    return id + ".odt";
+  }
+
+  @Override
+  public String ext() {
+    return "odt";
+  }
+
+  @Override
+  public String mimeType() {
+    return mimeType;
+  }
+
+  @Override
+  public String version() {
+    return String.valueOf(updateCount.get() + 1);
+  }
+
+  @Override
+  public long size() {
+    return content.length;
+  }
+
+  @Override
+  public OffsetDateTime lastModificationDate() {
+    return lastModificationDate;
+  }
+
+  @Override
+  public void loadInto(final OutputStream output) throws IOException {
+    loadCount.incrementAndGet();
+    output.write(content);
+  }
+
+  @Override
+  public void updateFrom(final InputStream input) throws IOException {
+    if (updateError != null) {
+      throw updateError;
+    }
+    content = input.readAllBytes();
+    lastModificationDate = lastModificationDate.plusSeconds(1);
+    updateCount.incrementAndGet();
+  }
+
+  byte[] getContent() {
+    return content;
+  }
+
+  int getLoadCount() {
+    return loadCount.get();
+  }
+
+  int getUpdateCount() {
+    return updateCount.get();
+  }
+
+  void failUpdatesWith(final IOException error) {
+    this.updateError = error;
+  }
+
+  @Override
+  public String toString() {
+    return id;
+  }
+}
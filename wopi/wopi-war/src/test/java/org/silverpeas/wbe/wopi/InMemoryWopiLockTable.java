@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.silverpeas.core.wbe.WbeFile;
+import org.silverpeas.wbe.wopi.lock.WopiLockStore;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table of the WOPI locks keeping the locks set on the files themselves in memory, standing
+ * for the locks of the documents of Silverpeas.
+ * @author silveryocha
+ */
+class InMemoryWopiLockTable extends WopiLockTable {
+
+  private final Map<String, String> fileLocks = new ConcurrentHashMap<>();
+
+  InMemoryWopiLockTable(final WopiLockStore store) {
+    this(store, Clock.systemUTC());
+  }
+
+  InMemoryWopiLockTable(final WopiLockStore store, final Clock clock) {
+    super(store, null, clock);
+  }
+
+  @Override
+  String getFileLockId(final WbeFile file) {
+    return fileLocks.get(file.id());
+  }
+
+  @Override
+  void setFileLockId(final WbeFile file, final String fileLockId) {
+    fileLocks.put(file.id(), fileLockId);
+  }
+
+  @Override
+  void clearFileLockId(final WbeFile file) {
+    fileLocks.remove(file.id());
+  }
+}
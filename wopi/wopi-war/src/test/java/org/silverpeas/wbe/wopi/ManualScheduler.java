@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.time.ZoneOffset.UTC;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A scheduler running its tasks only when asked, at the time given by its own clock. It makes
+ * the delayed treatments of the WOPI host deterministic in the tests.
+ * @author silveryocha
+ */
+class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+  private final List<Task> tasks = new ArrayList<>();
+  private final List<Runnable> pooledTasks = new ArrayList<>();
+  private final ManualClock clock;
+  private volatile boolean holdingPooledTasks = false;
+
+  ManualScheduler(final Instant now) {
+    super(1);
+    this.clock = new ManualClock(now);
+  }
+
+  /**
+   * Gets the executors of the WOPI host scheduling their tasks with this scheduler. The tasks
+   * given to their pools are run at once in the calling thread, unless they are held (see
+   * {@link #holdPooledTasks()}).
+   * @return a {@link WopiExecutors} instance.
+   */
+  WopiExecutors asExecutors() {
+    return new WopiExecutors() {
+      @Override
+      public ScheduledExecutorService getScheduler() {
+        return ManualScheduler.this;
+      }
+
+      @Override
+      public ExecutorService newPool(final int threads) {
+        return new PoolExecutor();
+      }
+    };
+  }
+
+  Clock getClock() {
+    return clock;
+  }
+
+  /**
+   * Gets the delays of the tasks still waiting for their time.
+   * @return a list of delays from the current time.
+   */
+  synchronized List<Duration> getPendingDelays() {
+    final List<Duration> delays = new ArrayList<>();
+    tasks.stream()
+        .filter(t -> !t.isCancelled())
+        .forEach(t -> delays.add(Duration.ofMillis(t.getDelay(MILLISECONDS))));
+    return delays;
+  }
+
+  /**
+   * Holds the tasks given to the pools of the executors until {@link #runPooledTasks()}, as if
+   * all the threads of the pools were busy.
+   */
+  void holdPooledTasks() {
+    holdingPooledTasks = true;
+  }
+
+  /**
+   * Runs the tasks held by the pools of the executors, and stops holding them.
+   */
+  void runPooledTasks() {
+    final List<Runnable> held;
+    synchronized (this) {
+      holdingPooledTasks = false;
+      held = new ArrayList<>(pooledTasks);
+      pooledTasks.clear();
+    }
+    held.forEach(Runnable::run);
+  }
+
+  /**
+   * Moves the clock forward by the given duration and runs the tasks whose time has come.
+   * @param duration a duration.
+   */
+  void advance(final Duration duration) {
+    clock.now = clock.now.plus(duration);
+    final List<Task> due = new ArrayList<>();
+    synchronized (this) {
+      tasks.removeIf(Task::isCancelled);
+      tasks.stream().filter(t -> !t.time.isAfter(clock.now)).forEach(due::add);
+      tasks.removeAll(due);
+    }
+    due.forEach(t -> t.command.run());
+  }
+
+  @Override
+  public synchronized ScheduledFuture<?> schedule(final Runnable command, final long delay,
+      final TimeUnit unit) {
+    final Task task = new Task(command, clock.now.plusMillis(unit.toMillis(delay)));
+    tasks.add(task);
+    return task;
+  }
+
+  @Override
+  public synchronized ScheduledFuture<?> scheduleAtFixedRate(final Runnable command,
+      final long initialDelay, final long period, final TimeUnit unit) {
+    final Task task = new Task(null, clock.now.plusMillis(unit.toMillis(initialDelay)));
+    task.command = () -> {
+      command.run();
+      synchronized (this) {
+        if (!task.isCancelled()) {
+          task.time = task.time.plusMillis(unit.toMillis(period));
+          tasks.add(task);
+        }
+      }
+    };
+    tasks.add(task);
+    return task;
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command,
+      final long initialDelay, final long delay, final TimeUnit unit) {
+    // the tasks take no time with this scheduler
+    return scheduleAtFixedRate(command, initialDelay, delay, unit);
+  }
+
+  /**
+   * A task waiting for its time.
+   */
+  private class Task implements ScheduledFuture<Object> {
+    private Runnable command;
+    private Instant time;
+    private volatile boolean cancelled = false;
+
+    private Task(final Runnable command, final Instant time) {
+      this.command = command;
+      this.time = time;
+    }
+
+    @Override
+    public long getDelay(final TimeUnit unit) {
+      return unit.convert(Duration.between(clock.now, time).toMillis(), MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(final Delayed other) {
+      return Long.compare(getDelay(MILLISECONDS), other.getDelay(MILLISECONDS));
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+      cancelled = true;
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return cancelled;
+    }
+
+    @Override
+    public Object get() {
+      return null;
+    }
+
+    @Override
+    public Object get(final long timeout, final TimeUnit unit) {
+      return null;
+    }
+  }
+
+  /**
+   * A pool of the executors, running its tasks in the calling thread unless they are held.
+   */
+  private class PoolExecutor extends AbstractExecutorService {
+    private volatile boolean shutdown = false;
+
+    @Override
+    public void execute(final Runnable command) {
+      synchronized (ManualScheduler.this) {
+        if (holdingPooledTasks) {
+          pooledTasks.add(command);
+          return;
+        }
+      }
+      command.run();
+    }
+
+    @Override
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+      return shutdown;
+    }
+  }
+
+  /**
+   * The clock of the scheduler.
+   */
+  private static class ManualClock extends Clock {
+    private volatile Instant now;
+
+    private ManualClock(final Instant now) {
+      this.now = now;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
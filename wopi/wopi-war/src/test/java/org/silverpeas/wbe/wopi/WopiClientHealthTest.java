@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author silveryocha
+ */
+class WopiClientHealthTest {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration MAX_LATENCY = Duration.ofMillis(200);
+  private static final double MAX_ERROR_RATE = 0.5;
+
+  private HttpServer server;
+  private final HttpClient httpClient = HttpClient.newHttpClient();
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/ok", e -> {
+      e.sendResponseHeaders(200, -1);
+      e.close();
+    });
+    server.createContext("/slow", e -> {
+      try {
+        Thread.sleep(400);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      e.sendResponseHeaders(200, -1);
+      e.close();
+    });
+    server.createContext("/unavailable", e -> {
+      e.sendResponseHeaders(503, -1);
+      e.close();
+    });
+    server.start();
+    // the first request of a client is slowed down by its initialization
+    new WopiClientHealth().probe(httpClient, url("/ok"), TIMEOUT);
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  void neverProbedServerIsNeitherSaturatedNorFailing() {
+    final WopiClientHealth health = new WopiClientHealth();
+    assertThat(health.isProbeDue(Duration.ofSeconds(30)), is(true));
+    assertThat(health.isSaturated(MAX_LATENCY), is(false));
+    assertThat(health.isFailing(MAX_ERROR_RATE), is(false));
+  }
+
+  @Test
+  void fastServerIsHealthy() {
+    final WopiClientHealth health = new WopiClientHealth();
+    final WopiClientHealth.Score score = health.probe(httpClient, url("/ok"), TIMEOUT);
+    assertThat(score.getProbes(), is(1L));
+    assertThat(score.getErrorRate(), is(0.0));
+    assertThat(health.isProbeDue(Duration.ofSeconds(30)), is(false));
+    assertThat(health.isSaturated(MAX_LATENCY), is(false));
+    assertThat(health.isFailing(MAX_ERROR_RATE), is(false));
+  }
+
+  @Test
+  void slowServerIsSaturatedButNotFailing() {
+    final WopiClientHealth health = new WopiClientHealth();
+    health.probe(httpClient, url("/slow"), TIMEOUT);
+    assertThat(health.isSaturated(MAX_LATENCY), is(true));
+    assertThat(health.isFailing(MAX_ERROR_RATE), is(false));
+  }
+
+  @Test
+  void unavailableServerIsFailing() {
+    final WopiClientHealth health = new WopiClientHealth();
+    health.probe(httpClient, url("/unavailable"), TIMEOUT);
+    assertThat(health.isFailing(MAX_ERROR_RATE), is(true));
+  }
+
+  @Test
+  void singleFailureDoesNotExcludeAHealthyServer() {
+    final WopiClientHealth health = new WopiClientHealth();
+    for (int i = 0; i < 5; i++) {
+      health.record(true, Duration.ofMillis(20));
+    }
+    health.record(false, Duration.ofMillis(20));
+    assertThat(health.isFailing(MAX_ERROR_RATE), is(false));
+    health.record(false, Duration.ofMillis(20));
+    health.record(false, Duration.ofMillis(20));
+    assertThat(health.isFailing(MAX_ERROR_RATE), is(true));
+    assertThat(health.getScore().getProbes(), is(8L));
+  }
+
+  private String url(final String path) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+}
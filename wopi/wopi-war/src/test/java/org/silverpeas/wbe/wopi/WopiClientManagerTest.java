@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.wbe.WbeFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author silveryocha
+ */
+class WopiClientManagerTest {
+
+  private final WopiClient client1 =
+      new WopiClient("https://office1.silverpeas.org", true, Runnable::run, (c, d) -> {});
+  private final WopiClient client2 =
+      new WopiClient("https://office2.silverpeas.org", true, Runnable::run, (c, d) -> {});
+
+  @Test
+  void handledFilesAreGivenWithTheBaseUrlOfTheirClientInTheOrderOfTheFiles() {
+    final List<WbeFile> files = List.of(file("38"), file("26"), file("41"), file("12"));
+    final List<String> checked = new ArrayList<>();
+    final Map<String, String> handled = WopiClientManager.getHandledFiles(files, f -> {
+      checked.add(f.id());
+      switch (f.id()) {
+        case "26":
+        case "12":
+          return Optional.of(client1);
+        case "38":
+          return Optional.of(client2);
+        default:
+          return Optional.empty();
+      }
+    });
+    assertThat(handled.keySet(), contains("38", "26", "12"));
+    assertThat(handled, hasEntry("38", "https://office2.silverpeas.org"));
+    assertThat(handled, hasEntry("26", "https://office1.silverpeas.org"));
+    assertThat(handled, hasEntry("12", "https://office1.silverpeas.org"));
+    assertThat(checked, contains("38", "26", "41", "12"));
+  }
+
+  @Test
+  void noFileIsHandledWithoutAnyClient() {
+    final Map<String, String> handled =
+        WopiClientManager.getHandledFiles(List.of(file("26")), f -> Optional.empty());
+    assertThat(handled.isEmpty(), is(true));
+  }
+
+  private static WbeFile file(final String id) {
+    return new InMemoryWbeFile(id, "text/plain", new byte[0]);
+  }
+}
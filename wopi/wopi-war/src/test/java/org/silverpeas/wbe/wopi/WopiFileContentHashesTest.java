@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author silveryocha
+ */
+class WopiFileContentHashesTest {
+
+  private final WopiFileContentHashes hashes = new WopiFileContentHashes();
+  private final List<WopiFileUpload> uploads = new ArrayList<>();
+
+  @TempDir
+  Path directory;
+
+  @AfterEach
+  void deleteUploads() {
+    uploads.forEach(WopiFileUpload::close);
+  }
+
+  @Test
+  void sameContentOfUnknownDigestIsHashedOnce() {
+    final InMemoryWbeFile file = file("version 1");
+    assertThat(hashes.isUnchanged(file, upload("version 1")), is(true));
+    assertThat(hashes.isUnchanged(file, upload("version 1")), is(true));
+    assertThat(hashes.isUnchanged(file, upload("version 2")), is(false));
+    assertThat(file.getLoadCount(), is(1));
+  }
+
+  @Test
+  void savedDigestIsUsedWithoutHashingTheFile() throws IOException {
+    final InMemoryWbeFile file = file("version 1");
+    final WopiFileUpload upload = upload("version 2");
+    try (final InputStream content = upload.open()) {
+      file.updateFrom(content);
+    }
+    hashes.saved(file, upload);
+    assertThat(hashes.isUnchanged(file, upload("version 2")), is(true));
+    assertThat(hashes.isUnchanged(file, upload("version 3")), is(false));
+    assertThat(file.getLoadCount(), is(0));
+  }
+
+  @Test
+  void fileModifiedByAnotherWayIsHashedAgainWhenTheSizesAreEqual() throws IOException {
+    final InMemoryWbeFile file = file("version 1");
+    final WopiFileUpload upload = upload("version 1");
+    hashes.saved(file, upload);
+    file.updateFrom(new ByteArrayInputStream(bytes("version 2")));
+    assertThat(hashes.isUnchanged(file, upload("version 1")), is(false));
+    assertThat(hashes.isUnchanged(file, upload("version 2")), is(true));
+    assertThat(file.getLoadCount(), is(1));
+  }
+
+  @Test
+  void contentOfAnotherSizeIsChangedWithoutHashingTheFile() {
+    final InMemoryWbeFile file = file("version 1");
+    assertThat(hashes.isUnchanged(file, upload("version 10")), is(false));
+    assertThat(file.getLoadCount(), is(0));
+  }
+
+  private static InMemoryWbeFile file(final String content) {
+    return new InMemoryWbeFile("26", "text/plain", bytes(content));
+  }
+
+  private WopiFileUpload upload(final String content) {
+    final byte[] body = bytes(content);
+    final WopiFileUpload upload = WopiFileUpload.receive(new ByteArrayInputStream(body),
+        body.length, null, 1000, directory);
+    uploads.add(upload);
+    return upload;
+  }
+
+  private static byte[] bytes(final String content) {
+    return content.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.Test;
+import org.silverpeas.wbe.wopi.util.ByteRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author silveryocha
+ */
+class WopiFileContentTest {
+
+  private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+
+  private final WopiFileContent content =
+      WopiFileContent.of(new InMemoryWbeFile("26", "text/plain", CONTENT));
+
+  @Test
+  void wholeContentIsStreamed() throws IOException {
+    assertThat(content.getLength(), is(20L));
+    assertThat(write(ByteRange.all(20)), is("0123456789abcdefghij"));
+  }
+
+  @Test
+  void onlyTheBytesOfTheRangeAreStreamed() throws IOException {
+    assertThat(write(ByteRange.parse("bytes=0-0", 20).orElseThrow()), is("0"));
+    assertThat(write(ByteRange.parse("bytes=5-9", 20).orElseThrow()), is("56789"));
+    assertThat(write(ByteRange.parse("bytes=15-", 20).orElseThrow()), is("fghij"));
+    assertThat(write(ByteRange.parse("bytes=-3", 20).orElseThrow()), is("hij"));
+    assertThat(write(ByteRange.parse("bytes=18-100", 20).orElseThrow()), is("ij"));
+  }
+
+  @Test
+  void gzippedContentIsCompleteAndTheResponseStreamIsLeftOpen() throws IOException {
+    final ClosingTrackedOutputStream output = new ClosingTrackedOutputStream();
+    content.writeGzipped().write(output);
+    assertThat(output.closed, is(false));
+    try (final GZIPInputStream input =
+             new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+      assertThat(new String(input.readAllBytes(), StandardCharsets.US_ASCII),
+          is("0123456789abcdefghij"));
+    }
+  }
+
+  private String write(final ByteRange range) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    content.write(range).write(output);
+    return output.toString(StandardCharsets.US_ASCII);
+  }
+
+  private static class ClosingTrackedOutputStream extends ByteArrayOutputStream {
+    private boolean closed = false;
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.silverpeas.wbe.wopi.lock.MemoryLockStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author silveryocha
+ */
+class WopiFileSaveManagerTest {
+
+  private static final Duration QUIET_PERIOD = Duration.ofSeconds(10);
+  private static final Duration MAX_DELAY = Duration.ofSeconds(25);
+
+  @TempDir
+  Path directory;
+
+  private ManualScheduler scheduler;
+  private WopiLockTable lockTable;
+  private WopiFileSaveManager manager;
+  private InMemoryWbeFile file;
+
+  @BeforeEach
+  void createManager() {
+    scheduler = new ManualScheduler(Instant.parse("2021-06-01T12:00:00Z"));
+    lockTable = new InMemoryWopiLockTable(new MemoryLockStore());
+    manager = newManager(100);
+    file = new InMemoryWbeFile("26", "text/plain", bytes("v0"));
+  }
+
+  @Test
+  void savesOfABurstAreCommittedOnceAfterTheQuietPeriod() throws IOException {
+    final OffsetDateTime first = save(file, "v1");
+    scheduler.advance(Duration.ofSeconds(5));
+    final OffsetDateTime second = save(file, "v2");
+    scheduler.advance(Duration.ofSeconds(5));
+    final OffsetDateTime third = save(file, "v3");
+    assertThat(second.isAfter(first), is(true));
+    assertThat(third.isAfter(second), is(true));
+    assertThat(file.getUpdateCount(), is(0));
+
+    scheduler.advance(QUIET_PERIOD.minusSeconds(1));
+    assertThat(file.getUpdateCount(), is(0));
+    scheduler.advance(Duration.ofSeconds(1));
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v3")));
+    assertThat(spools(), is(empty()));
+  }
+
+  @Test
+  void commitIsPerformedByThePoolOfTheCommitsOnlyForTheLastPendingSave() throws IOException {
+    scheduler.holdPooledTasks();
+    save(file, "v1");
+    scheduler.advance(QUIET_PERIOD);
+    // the scheduler has only triggered the commit
+    assertThat(file.getUpdateCount(), is(0));
+    save(file, "v2");
+    scheduler.runPooledTasks();
+    // the triggered commit was the one of a replaced pending save
+    assertThat(file.getUpdateCount(), is(0));
+
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v2")));
+  }
+
+  @Test
+  void maxDelayBoundsTheWriteBehindOfABusyFile() throws IOException {
+    save(file, "v1");
+    assertThat(scheduler.getPendingDelays(), is(List.of(QUIET_PERIOD)));
+    scheduler.advance(Duration.ofSeconds(8));
+    save(file, "v2");
+    scheduler.advance(Duration.ofSeconds(8));
+    save(file, "v3");
+    assertThat(scheduler.getPendingDelays(), is(List.of(Duration.ofSeconds(9))));
+    scheduler.advance(Duration.ofSeconds(8));
+    save(file, "v4");
+    assertThat(scheduler.getPendingDelays(), is(List.of(Duration.ofSeconds(1))));
+    assertThat(file.getUpdateCount(), is(0));
+
+    scheduler.advance(Duration.ofSeconds(1));
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v4")));
+  }
+
+  @Test
+  void exitSaveIsCommittedAtOnceInPlaceOfThePendingSave() throws IOException {
+    save(file, "v1");
+    manager.save(file, null, upload("v2"), null, true);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v2")));
+
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v2")));
+    assertThat(scheduler.getPendingDelays(), is(empty()));
+  }
+
+  @Test
+  void flushOfAnUnlockedOrReadFileCommitsThePendingSave() throws IOException {
+    save(file, "v1");
+    manager.flush(file);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v1")));
+
+    scheduler.advance(QUIET_PERIOD);
+    manager.flush(file);
+    assertThat(file.getUpdateCount(), is(1));
+  }
+
+  @Test
+  void acknowledgedTimeIsVerifiedUntilTheFileIsModifiedByAnotherWay() throws IOException {
+    final OffsetDateTime acknowledged = save(file, "v1");
+    assertThat(manager.isAcknowledged(file, acknowledged), is(true));
+    assertThat(manager.isAcknowledged(file, acknowledged.minusSeconds(1)), is(false));
+
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(manager.isAcknowledged(file, acknowledged), is(true));
+
+    file.updateFrom(new ByteArrayInputStream(bytes("modified elsewhere")));
+    assertThat(manager.isAcknowledged(file, acknowledged), is(false));
+  }
+
+  @Test
+  void failedCommitIsKeptPendingAndRetried() throws IOException {
+    file.failUpdatesWith(new IOException("storage unavailable"));
+    final OffsetDateTime acknowledged = save(file, "v1");
+    assertThrows(IOException.class, () -> manager.flush(file));
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(0));
+    assertThat(manager.isAcknowledged(file, acknowledged), is(true));
+
+    file.failUpdatesWith(null);
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v1")));
+    assertThat(spools(), is(empty()));
+  }
+
+  @Test
+  void savesBeyondTheMaxPendingAreCommittedAtOnce() throws IOException {
+    manager = newManager(1);
+    final InMemoryWbeFile other = new InMemoryWbeFile("38", "text/plain", bytes("v0"));
+    save(file, "v1");
+    save(other, "v1");
+    assertThat(file.getUpdateCount(), is(0));
+    assertThat(other.getUpdateCount(), is(1));
+    save(file, "v2");
+    assertThat(file.getUpdateCount(), is(0));
+  }
+
+  @Test
+  void pendingSaveIsCommittedWhileItsFileIsLockedWithTheVerifiedLock() throws IOException {
+    lockTable.lock(file, "A");
+    save(file, "v1", "A");
+    lockTable.refresh(file, "A");
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(1));
+    assertThat(file.getContent(), is(bytes("v1")));
+  }
+
+  @Test
+  void pendingSaveIsDroppedWhenTheLockOfItsFileHasChanged() throws IOException {
+    lockTable.lock(file, "A");
+    save(file, "v1", "A");
+    lockTable.unlock(file, "A");
+    lockTable.lock(file, "B");
+    scheduler.advance(QUIET_PERIOD);
+    assertThat(file.getUpdateCount(), is(0));
+    assertThat(file.getContent(), is(bytes("v0")));
+    // the dropped content is kept for a recovery by hand
+    assertThat(spools().size(), is(1));
+  }
+
+  private WopiFileSaveManager newManager(final int maxPending) {
+    return new WopiFileSaveManager(new WopiFileContentHashes(), scheduler.asExecutors(),
+        lockTable, new WopiFileSaveManager.WriteBehind(QUIET_PERIOD, MAX_DELAY, maxPending),
+        scheduler.getClock());
+  }
+
+  private OffsetDateTime save(final InMemoryWbeFile file, final String content)
+      throws IOException {
+    return save(file, content, null);
+  }
+
+  private OffsetDateTime save(final InMemoryWbeFile file, final String content,
+      final String lockId) throws IOException {
+    try (final WopiFileUpload upload = upload(content)) {
+      return manager.save(file, null, upload, lockId, false);
+    }
+  }
+
+  private WopiFileUpload upload(final String content) {
+    final byte[] body = bytes(content);
+    return WopiFileUpload.receive(new ByteArrayInputStream(body), body.length, null, 1000,
+        directory);
+  }
+
+  private List<Path> spools() throws IOException {
+    try (final Stream<Path> files = Files.list(directory)) {
+      return files.collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] bytes(final String content) {
+    return content.getBytes(StandardCharsets.US_ASCII);
+  }
+}
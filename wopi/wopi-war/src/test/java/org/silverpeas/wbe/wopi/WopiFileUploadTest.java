@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.silverpeas.core.webapi.wbe.WbeResponseError;
+import org.silverpeas.wbe.wopi.util.Digests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author silveryocha
+ */
+class WopiFileUploadTest {
+
+  private static final byte[] CONTENT = new byte[100];
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void receivedContentIsSpooledUntilClosed() throws IOException {
+    final Path spool;
+    try (final WopiFileUpload upload = receive(new ByteArrayInputStream(CONTENT), 100, null, 100)) {
+      assertThat(upload.getSize(), is(100L));
+      assertThat(upload.getDigest(), is(Digests.toHex(Digests.sha256().digest(CONTENT))));
+      try (final InputStream content = upload.open()) {
+        assertThat(content.readAllBytes(), is(CONTENT));
+      }
+      spool = spoolOf();
+    }
+    assertThat(Files.exists(spool), is(false));
+  }
+
+  @Test
+  void gzippedContentIsDecoded() throws IOException {
+    final byte[] gzipped = gzip(CONTENT);
+    try (final WopiFileUpload upload =
+             receive(new ByteArrayInputStream(gzipped), gzipped.length, "gzip", 100)) {
+      assertThat(upload.getSize(), is(100L));
+    }
+  }
+
+  @Test
+  void announcedLengthBeyondTheMaximumIsRejected() {
+    assertStatus(413, () -> receive(new ByteArrayInputStream(CONTENT), 101, null, 100));
+  }
+
+  @Test
+  void contentBeyondTheMaximumIsRejected() {
+    assertStatus(413, () -> receive(new ByteArrayInputStream(new byte[101]), -1, null, 100));
+  }
+
+  @Test
+  void decodedContentBeyondTheMaximumIsRejected() throws IOException {
+    final byte[] gzipped = gzip(new byte[10000]);
+    assertStatus(413,
+        () -> receive(new ByteArrayInputStream(gzipped), gzipped.length, "gzip", 100));
+  }
+
+  @Test
+  void shortContentIsRejected() {
+    assertStatus(400, () -> receive(new ByteArrayInputStream(CONTENT), 200, null, 1000));
+  }
+
+  @Test
+  void interruptedContentIsRejected() {
+    final InputStream interrupted = new SequenceInputStream(new ByteArrayInputStream(CONTENT),
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("connection reset");
+          }
+        });
+    assertStatus(400, () -> receive(interrupted, 200, null, 1000));
+  }
+
+  @Test
+  void unhandledCodingIsRejected() {
+    assertStatus(415, () -> receive(new ByteArrayInputStream(CONTENT), 100, "br", 100));
+  }
+
+  private WopiFileUpload receive(final InputStream body, final long contentLength,
+      final String contentEncoding, final long maxSize) {
+    return WopiFileUpload.receive(body, contentLength, contentEncoding, maxSize, directory);
+  }
+
+  private void assertStatus(final int status, final Runnable receiving) {
+    final WbeResponseError error = assertThrows(WbeResponseError.class, receiving::run);
+    assertThat(error.getResponse().getStatus(), is(status));
+    // the rejected content is not kept
+    assertThat(spoolOf(), is((Path) null));
+  }
+
+  private Path spoolOf() {
+    try (final Stream<Path> files = Files.list(directory)) {
+      return files.findFirst().orElse(null);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] gzip(final byte[] content) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (final GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write(content);
+    }
+    return output.toByteArray();
+  }
+}
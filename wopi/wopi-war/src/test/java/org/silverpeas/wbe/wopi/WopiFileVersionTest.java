@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.time.ZoneOffset.UTC;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * @author silveryocha
+ */
+class WopiFileVersionTest {
+
+  private static final String LAST_MODIFIED = "Tue, 1 Jun 2021 10:00:00 GMT";
+  private static final String BEFORE = "Tue, 1 Jun 2021 09:59:59 GMT";
+
+  private final InMemoryWbeFile file =
+      new InMemoryWbeFile("26", "text/plain", "content".getBytes(StandardCharsets.US_ASCII));
+
+  @Test
+  void tagDependsOnTheWholeRepresentation() {
+    final WopiFileVersion version = WopiFileVersion.of(file, "{\"UserFriendlyName\":\"A\"}");
+    assertThat(version.getEntityTag(),
+        is(WopiFileVersion.of(file, "{\"UserFriendlyName\":\"A\"}").getEntityTag()));
+    assertThat(version.getEntityTag(),
+        not(is(WopiFileVersion.of(file, "{\"UserFriendlyName\":\"B\"}").getEntityTag())));
+    assertThat(version.getEntityTag(), not(is(version.encodedWith("gzip").getEntityTag())));
+  }
+
+  @Test
+  void ifNoneMatchIsCheckedAgainstTheTag() {
+    final WopiFileVersion version = WopiFileVersion.of(file);
+    final String tag = '"' + version.getEntityTag().getValue() + '"';
+    assertThat(version.isNotModifiedFor(request("If-None-Match", tag)), is(true));
+    assertThat(version.isNotModifiedFor(request("If-None-Match", "\"other\", " + tag)), is(true));
+    assertThat(version.isNotModifiedFor(request("If-None-Match", "W/" + tag)), is(true));
+    assertThat(version.isNotModifiedFor(request("If-None-Match", "*")), is(true));
+    assertThat(version.isNotModifiedFor(request("If-None-Match", "\"other\"")), is(false));
+  }
+
+  @Test
+  void ifNoneMatchPrevailsOverIfModifiedSince() {
+    final WopiFileVersion version = WopiFileVersion.of(file);
+    assertThat(version.isNotModifiedFor(
+        request("If-None-Match", "\"other\"", "If-Modified-Since", LAST_MODIFIED)), is(false));
+  }
+
+  @Test
+  void ifModifiedSinceIsCheckedAgainstTheLastModificationDate() {
+    final WopiFileVersion version = WopiFileVersion.of(file);
+    assertThat(version.isNotModifiedFor(request("If-Modified-Since", LAST_MODIFIED)), is(true));
+    assertThat(version.isNotModifiedFor(request("If-Modified-Since", BEFORE)), is(false));
+    assertThat(version.isNotModifiedFor(request("If-Modified-Since", "not a date")), is(false));
+    assertThat(version.isNotModifiedFor(request()), is(false));
+  }
+
+  @Test
+  void rangeIsOnlyApplicableToTheSameVersion() {
+    final WopiFileVersion version = WopiFileVersion.of(file);
+    final String tag = '"' + version.getEntityTag().getValue() + '"';
+    assertThat(version.isRangeApplicableFor(request()), is(true));
+    assertThat(version.isRangeApplicableFor(request("If-Range", tag)), is(true));
+    assertThat(version.isRangeApplicableFor(request("If-Range", "\"other\"")), is(false));
+    assertThat(version.isRangeApplicableFor(request("If-Range", LAST_MODIFIED)), is(true));
+    assertThat(version.isRangeApplicableFor(request("If-Range", BEFORE)), is(false));
+  }
+
+  private static HttpServletRequest request(final String... headers) {
+    final Map<String, String> values = new HashMap<>();
+    for (int i = 0; i < headers.length; i += 2) {
+      values.put(headers[i].toLowerCase(), headers[i + 1]);
+    }
+    return (HttpServletRequest) Proxy.newProxyInstance(WopiFileVersionTest.class.getClassLoader(),
+        new Class<?>[]{HttpServletRequest.class}, (p, method, args) -> {
+          final String value = args != null ? values.get(((String) args[0]).toLowerCase()) : null;
+          switch (method.getName()) {
+            case "getHeader":
+              return value;
+            case "getDateHeader":
+              return value == null ? -1L : parseDate(value);
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static long parseDate(final String value) {
+    try {
+      return ZonedDateTime.parse(value, RFC_1123_DATE_TIME).withZoneSameInstant(UTC).toInstant()
+          .toEpochMilli();
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException(value);
+    }
+  }
+}
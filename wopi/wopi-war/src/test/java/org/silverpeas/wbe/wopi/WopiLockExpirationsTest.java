@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.wbe.wopi.lock.MemoryLockStore;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * @author silveryocha
+ */
+class WopiLockExpirationsTest {
+
+  private static final Duration SWEEP_DELAY = Duration.ofMinutes(1);
+
+  private ManualScheduler scheduler;
+  private InMemoryWopiLockTable lockTable;
+  private WopiFileRegistry fileRegistry;
+  private WopiLockExpirations expirations;
+  private final InMemoryWbeFile file = new InMemoryWbeFile("26", "text/plain", new byte[0]);
+
+  @BeforeEach
+  void createExpirations() {
+    scheduler = new ManualScheduler(Instant.parse("2021-06-01T12:00:00Z"));
+    lockTable = new InMemoryWopiLockTable(new MemoryLockStore(), scheduler.getClock());
+    fileRegistry = new WopiFileRegistry();
+    expirations = new WopiLockExpirations(lockTable, fileRegistry, scheduler.asExecutors(),
+        scheduler.getClock());
+    expirations.init();
+    fileRegistry.register(file);
+  }
+
+  @Test
+  void expiredLockIsClearedByTheSweeperOnTheRegisteredFile() {
+    lock("A");
+    scheduler.advance(WopiLockExpirations.LOCK_DURATION.minus(SWEEP_DELAY));
+    assertThat(lockTable.getFileLockId(file) != null, is(true));
+
+    scheduler.advance(SWEEP_DELAY.multipliedBy(2));
+    assertThat(lockTable.getFileLockId(file), is(nullValue()));
+    assertThat(lockTable.getLock(file).isPresent(), is(false));
+    assertThat(expirations.getTrackedCount(), is(0));
+  }
+
+  @Test
+  void refreshedLockIsNotCleared() {
+    lock("A");
+    scheduler.advance(Duration.ofMinutes(20));
+    lockTable.refresh(file, "A");
+    expirations.track(file, "A");
+    scheduler.advance(Duration.ofMinutes(20));
+    assertThat(lockTable.getLock(file).isPresent(), is(true));
+
+    scheduler.advance(Duration.ofMinutes(11));
+    assertThat(lockTable.getLock(file).isPresent(), is(false));
+  }
+
+  @Test
+  void lockRefreshedThroughAnotherWayIsTrackedAgain() {
+    lock("A");
+    scheduler.advance(Duration.ofMinutes(20));
+    // refreshed from another node: only the lock table knows it
+    lockTable.refresh(file, "A");
+    scheduler.advance(Duration.ofMinutes(11));
+    assertThat(lockTable.getLock(file).isPresent(), is(true));
+    assertThat(expirations.getTrackedCount(), is(1));
+  }
+
+  @Test
+  void lockOfAFileNoMoreRegisteredIsLeftUntilItsNextAccess() {
+    final InMemoryWbeFile unregistered =
+        new InMemoryWbeFile("38", "text/plain", new byte[0]);
+    lockTable.lock(unregistered, "A");
+    expirations.track(unregistered, "A");
+    scheduler.advance(WopiLockExpirations.LOCK_DURATION.plus(SWEEP_DELAY));
+    assertThat(expirations.getTrackedCount(), is(0));
+    assertThat(lockTable.getFileLockId(unregistered) != null, is(true));
+
+    // the expired lock is cleared at the next access of the file
+    assertThat(lockTable.getLock(unregistered).isPresent(), is(false));
+    assertThat(lockTable.getFileLockId(unregistered), is(nullValue()));
+  }
+
+  private void lock(final String lockId) {
+    lockTable.lock(file, lockId);
+    expirations.track(file, lockId);
+  }
+}
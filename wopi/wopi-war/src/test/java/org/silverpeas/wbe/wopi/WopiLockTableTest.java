@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.silverpeas.wbe.wopi.lock.MemoryLockStore;
+import org.silverpeas.wbe.wopi.lock.SharedFileLockStore;
+import org.silverpeas.wbe.wopi.lock.WopiLock;
+import org.silverpeas.wbe.wopi.lock.WopiLockStore;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * @author silveryocha
+ */
+class WopiLockTableTest {
+
+  private static final int CONCURRENT_CLIENTS = 8;
+
+  @TempDir
+  Path directory;
+
+  private final WopiLockStore store = new MemoryLockStore();
+  private final InMemoryWopiLockTable table = new InMemoryWopiLockTable(store);
+  // another node of a cluster, with its own fences, sharing the same store
+  private final WopiLockTable otherNodeTable = new InMemoryWopiLockTable(store);
+  private final InMemoryWbeFile file =
+      new InMemoryWbeFile("26", "text/plain", "content".getBytes(StandardCharsets.US_ASCII));
+
+  @Test
+  void lockIsOnlyTakenOnAnUnlockedFileOrWithTheSameId() {
+    assertThat(table.lock(file, "A"), is(true));
+    assertThat(table.lock(file, "A"), is(true));
+    assertThat(table.lock(file, "B"), is(false));
+    assertThat(table.getLock(file).map(WopiLock::getLockId).orElse(""), is("A"));
+    assertThat(store.get(file.id()).map(l -> l.hasDigest(WopiLock.digestOf("A"))),
+        is(Optional.of(true)));
+  }
+
+  @Test
+  void relockAndUnlockRequireTheCurrentLock() {
+    table.lock(file, "A");
+    assertThat(table.relock(file, "B", "C"), is(false));
+    assertThat(table.relock(file, "A", "C"), is(true));
+    assertThat(table.unlock(file, "A"), is(false));
+    assertThat(table.refresh(file, "C"), is(true));
+    assertThat(table.unlock(file, "C"), is(true));
+    assertThat(table.getLock(file).isPresent(), is(false));
+    assertThat(table.lock(file, "B"), is(true));
+  }
+
+  @Test
+  void fileIsWritableOnlyWithItsLockOrUnlockedWithoutLock() {
+    assertThat(table.isWritableWith(file, ""), is(true));
+    assertThat(table.isWritableWith(file, "A"), is(false));
+    table.lock(file, "A");
+    assertThat(table.isWritableWith(file, "A"), is(true));
+    assertThat(table.isWritableWith(file, "B"), is(false));
+    assertThat(table.isWritableWith(file, ""), is(false));
+  }
+
+  @Test
+  void lockSetAsIsOnTheFileByAPreviousVersionIsAdopted() {
+    table.setFileLockId(file, "A");
+    assertThat(table.isLockedExternally(file), is(false));
+    assertThat(table.isWritableWith(file, "A"), is(true));
+    assertThat(table.getLockId(file), is("A"));
+    assertThat(table.lock(file, "B"), is(false));
+    assertThat(table.getFileLockId(file), is("wopi-lock:" + WopiLock.digestOf("A")));
+
+    assertThat(table.unlock(file, "A"), is(true));
+    assertThat(table.getFileLockId(file), is(nullValue()));
+  }
+
+  @Test
+  void longLockWithoutMarkerIsExternal() {
+    final String externalLockId = "x".repeat(WopiLockTable.LEGACY_MAX_LOCK_LENGTH + 1);
+    table.setFileLockId(file, externalLockId);
+    assertThat(table.isLockedExternally(file), is(true));
+    assertThat(table.isWritableWith(file, externalLockId), is(false));
+    assertThat(table.getLockId(file), is(""));
+    assertThat(table.getFileLockId(file), is(externalLockId));
+  }
+
+  @Test
+  void lockKnownOnlyByItsDigestIsNotGivenAsUnlocked() {
+    table.lock(file, "A");
+    // a restart of the server, the lock set on the file being kept
+    final InMemoryWopiLockTable restartedTable = new InMemoryWopiLockTable(new MemoryLockStore());
+    restartedTable.setFileLockId(file, table.getFileLockId(file));
+
+    assertThat(restartedTable.getLockId(file), is(table.getFileLockId(file)));
+    assertThat(restartedTable.lock(file, "B"), is(false));
+    assertThat(restartedTable.refresh(file, "A"), is(true));
+    assertThat(restartedTable.getLockId(file), is("A"));
+  }
+
+  @Test
+  void concurrentLocksWithDifferentIdsCannotBothSucceed() throws Exception {
+    assertOnlyOneOfConcurrentLocksSucceeds(table, otherNodeTable);
+  }
+
+  @Test
+  void configuredStoreIsUsedWhenNoneIsProvided() {
+    assertThat(WopiLockTable.selectStore(Stream.empty(), Optional.empty()),
+        instanceOf(MemoryLockStore.class));
+    final WopiLockStore configured =
+        WopiLockTable.selectStore(Stream.empty(), Optional.of(directory));
+    assertThat(configured, instanceOf(SharedFileLockStore.class));
+
+    final WopiLockTable configuredTable = new InMemoryWopiLockTable(configured);
+    assertThat(configuredTable.lock(file, "A"), is(true));
+    assertThat(new SharedFileLockStore(directory).get(file.id())
+        .map(l -> l.hasDigest(WopiLock.digestOf("A"))), is(Optional.of(true)));
+  }
+
+  @Test
+  void providedStoreWinsOverTheConfiguredOne() {
+    assertThat(WopiLockTable.selectStore(Stream.of(store), Optional.of(directory)),
+        sameInstance(store));
+  }
+
+  @Test
+  void concurrentLocksWithDifferentIdsCannotBothSucceedOnTheConfiguredStore()
+      throws Exception {
+    // each node has its own instance of the store configured with the same directory
+    final Optional<Path> storePath = Optional.of(directory);
+    assertOnlyOneOfConcurrentLocksSucceeds(
+        new InMemoryWopiLockTable(WopiLockTable.selectStore(Stream.empty(), storePath)),
+        new InMemoryWopiLockTable(WopiLockTable.selectStore(Stream.empty(), storePath)));
+  }
+
+  private void assertOnlyOneOfConcurrentLocksSucceeds(final WopiLockTable node1Table,
+      final WopiLockTable node2Table) throws Exception {
+    for (int round = 0; round < 50; round++) {
+      final InMemoryWbeFile lockedFile = new InMemoryWbeFile("file-" + round, "text/plain",
+          new byte[0]);
+      final ExecutorService clients = Executors.newFixedThreadPool(CONCURRENT_CLIENTS);
+      try {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Boolean>> locks = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_CLIENTS; i++) {
+          final String lockId = "lock-" + i;
+          final WopiLockTable nodeTable = i % 2 == 0 ? node1Table : node2Table;
+          locks.add(clients.submit(() -> {
+            start.await();
+            return nodeTable.lock(lockedFile, lockId);
+          }));
+        }
+        start.countDown();
+        int succeeded = 0;
+        for (final Future<Boolean> lock : locks) {
+          succeeded += lock.get(10, TimeUnit.SECONDS) ? 1 : 0;
+        }
+        assertThat(succeeded, is(1));
+      } finally {
+        clients.shutdownNow();
+      }
+    }
+  }
+}
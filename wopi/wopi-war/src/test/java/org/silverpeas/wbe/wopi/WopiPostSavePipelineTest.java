@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author silveryocha
+ */
+class WopiPostSavePipelineTest {
+
+  private static final String[] FILE_IDS = {"26", "38", "41"};
+
+  private WopiExecutors executors;
+  private WopiFileRegistry fileRegistry;
+  private WopiPostSavePipeline pipeline;
+
+  @BeforeEach
+  void registerFiles() {
+    executors = new WopiExecutors();
+    fileRegistry = new WopiFileRegistry();
+    for (final String fileId : FILE_IDS) {
+      fileRegistry.register(new InMemoryWbeFile(fileId, "text/plain", new byte[0]));
+    }
+  }
+
+  @AfterEach
+  void stopPipeline() {
+    pipeline.shutdown();
+    executors.shutdown();
+  }
+
+  @Test
+  void treatmentsOfASameFileArePerformedOneAfterTheOtherInSubmissionOrder()
+      throws InterruptedException {
+    pipeline = new WopiPostSavePipeline(executors, fileRegistry, 4, 1000);
+    final List<List<Integer>> performed = new ArrayList<>();
+    final List<AtomicInteger> running = new ArrayList<>();
+    for (int i = 0; i < FILE_IDS.length; i++) {
+      performed.add(Collections.synchronizedList(new ArrayList<>()));
+      running.add(new AtomicInteger(0));
+    }
+    final AtomicBoolean overlapping = new AtomicBoolean(false);
+    final int count = 300;
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      final int fileIndex = i % FILE_IDS.length;
+      final boolean queued = pipeline.submit(FILE_IDS[fileIndex], "treatment " + i, null, f -> {
+        if (running.get(fileIndex).incrementAndGet() > 1 ||
+            !f.id().equals(FILE_IDS[fileIndex])) {
+          overlapping.set(true);
+        }
+        Thread.yield();
+        performed.get(fileIndex).add(index);
+        running.get(fileIndex).decrementAndGet();
+      });
+      assertThat(queued, is(true));
+    }
+    awaitProcessed(count);
+    assertThat(overlapping.get(), is(false));
+    for (int i = 0; i < FILE_IDS.length; i++) {
+      final int fileIndex = i;
+      final List<Integer> expected = IntStream.range(0, count)
+          .filter(n -> n % FILE_IDS.length == fileIndex)
+          .boxed()
+          .collect(Collectors.toList());
+      assertThat(performed.get(i), contains(expected.toArray()));
+    }
+    assertThat(pipeline.getQueueDepth(), is(0));
+    assertThat(pipeline.getRejectedCount(), is(0L));
+  }
+
+  @Test
+  void submissionToAFullPipelineIsRejectedAndCounted() throws InterruptedException {
+    pipeline = new WopiPostSavePipeline(executors, fileRegistry, 1, 2);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    assertThat(pipeline.submit("26", "blocking", null, f -> {
+      started.countDown();
+      awaitQuietly(release);
+    }), is(true));
+    assertThat(pipeline.submit("38", "waiting", null, f -> {}), is(true));
+    assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+    assertThat(pipeline.submit("41", "rejected", null, f -> {}), is(false));
+    assertThat(pipeline.getRejectedCount(), is(1L));
+    assertThat(pipeline.getQueueDepth(), is(2));
+
+    release.countDown();
+    awaitProcessed(2);
+    assertThat(pipeline.submit("41", "accepted", null, f -> {}), is(true));
+    awaitProcessed(3);
+    assertThat(pipeline.getRejectedCount(), is(1L));
+  }
+
+  @Test
+  void treatmentOfAFileNoMoreKnownIsSkipped() throws InterruptedException {
+    pipeline = new WopiPostSavePipeline(executors, fileRegistry, 1, 10);
+    final AtomicBoolean performed = new AtomicBoolean(false);
+    assertThat(pipeline.submit("unknown", "skipped", null, f -> performed.set(true)), is(true));
+    awaitProcessed(1);
+    assertThat(performed.get(), is(false));
+  }
+
+  @Test
+  void metricsAreExposedThroughJmx() throws Exception {
+    pipeline = new WopiPostSavePipeline(executors, fileRegistry, 1, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    pipeline.submit("26", "blocking", null, f -> awaitQuietly(release));
+    pipeline.submit("38", "rejected", null, f -> {});
+    pipeline.registerMBean();
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName(WopiPostSavePipeline.MBEAN_NAME);
+    assertThat(server.getAttribute(name, "QueueDepth"), is(1));
+    assertThat(server.getAttribute(name, "RejectedCount"), is(1L));
+    release.countDown();
+    awaitProcessed(1);
+    assertThat(server.getAttribute(name, "ProcessedCount"), is(1L));
+    assertThat(server.getAttribute(name, "LagMillis"), is(0L));
+
+    pipeline.shutdown();
+    assertThat(server.isRegistered(name), is(false));
+  }
+
+  private void awaitProcessed(final long count) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (pipeline.getProcessedCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(pipeline.getProcessedCount(), is(count));
+  }
+
+  private static void awaitQuietly(final CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.silverpeas.core.wbe.WbeFile;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author silveryocha
+ */
+class WopiPresenceRegistryTest {
+
+  private static final Duration WINDOW = Duration.ofSeconds(2);
+  private static final Duration SWEEP_PERIOD = Duration.ofMinutes(5);
+
+  private ManualScheduler scheduler;
+  private WopiPresenceRegistry registry;
+  private final RecordingHostManager hostManager = new RecordingHostManager();
+  private final InMemoryWbeFile file = new InMemoryWbeFile("26", "text/plain", new byte[0]);
+
+  @BeforeEach
+  void createRegistry() {
+    scheduler = new ManualScheduler(Instant.parse("2021-06-01T12:00:00Z"));
+    final WopiFileRegistry fileRegistry = new WopiFileRegistry();
+    fileRegistry.register(file);
+    registry = new WopiPresenceRegistry(fileRegistry, scheduler.asExecutors(), WINDOW,
+        scheduler.getClock());
+    registry.init();
+  }
+
+  @Test
+  void changesWithinTheWindowAreNotifiedOnce() {
+    registry.update(file, Set.of("1"), hostManager);
+    registry.update(file, Set.of("1", "2"), hostManager);
+    registry.update(file, Set.of("1", "2"), hostManager);
+    assertThat(hostManager.notifications, is(empty()));
+
+    scheduler.advance(WINDOW);
+    assertThat(hostManager.notifications, contains(Set.of("1", "2")));
+    assertThat(hostManager.fileIds, contains("26"));
+  }
+
+  @Test
+  void sameUsersAreNotNotifiedAgain() {
+    registry.update(file, Set.of("1", "2"), hostManager);
+    scheduler.advance(WINDOW);
+    registry.update(file, Set.of("2", "1"), hostManager);
+    scheduler.advance(WINDOW);
+    assertThat(hostManager.notifications, contains(Set.of("1", "2")));
+  }
+
+  @Test
+  void userRejoiningAloneAfterTheRevocationIsNotifiedAgain() {
+    registry.update(file, Set.of("1"), hostManager);
+    scheduler.advance(WINDOW);
+    registry.reset(file.id());
+    assertThat(registry.getFileCount(), is(0));
+
+    registry.update(file, Set.of("1"), hostManager);
+    scheduler.advance(WINDOW);
+    assertThat(hostManager.notifications, contains(Set.of("1"), Set.of("1")));
+  }
+
+  @Test
+  void revocationKeepsTheNotificationWaitingForItsWindow() {
+    registry.update(file, Set.of("1"), hostManager);
+    registry.reset(file.id());
+    scheduler.advance(WINDOW);
+    assertThat(hostManager.notifications, contains(Set.of("1")));
+  }
+
+  @Test
+  void fileLeftByAllItsUsersIsRemoved() {
+    registry.update(file, Set.of("1"), hostManager);
+    scheduler.advance(WINDOW);
+    registry.update(file, Set.of(), hostManager);
+    scheduler.advance(WINDOW);
+    assertThat(hostManager.notifications, contains(Set.of("1"), Set.of()));
+    assertThat(registry.getFileCount(), is(0));
+  }
+
+  @Test
+  void idleFileIsRemovedBySweep() {
+    registry.update(file, Set.of("1"), hostManager);
+    scheduler.advance(WINDOW);
+    scheduler.advance(WopiPresenceRegistry.IDLE_DURATION.minus(SWEEP_PERIOD));
+    assertThat(registry.getFileCount(), is(1));
+
+    scheduler.advance(SWEEP_PERIOD);
+    assertThat(registry.getFileCount(), is(0));
+  }
+
+  @Test
+  void fileWithUsersReceivedLatelyIsKeptBySweep() {
+    registry.update(file, Set.of("1"), hostManager);
+    scheduler.advance(WopiPresenceRegistry.IDLE_DURATION.minus(SWEEP_PERIOD));
+    registry.update(file, Set.of("1"), hostManager);
+    scheduler.advance(SWEEP_PERIOD.multipliedBy(2));
+    assertThat(registry.getFileCount(), is(1));
+  }
+
+  /**
+   * A host manager recording the notifications of the users editing the files.
+   */
+  private static class RecordingHostManager implements BiConsumer<WbeFile, Set<String>> {
+    private final List<Set<String>> notifications = new ArrayList<>();
+    private final List<String> fileIds = new ArrayList<>();
+
+    @Override
+    public void accept(final WbeFile file, final Set<String> userIds) {
+      fileIds.add(file.id());
+      notifications.add(userIds);
+    }
+  }
+}
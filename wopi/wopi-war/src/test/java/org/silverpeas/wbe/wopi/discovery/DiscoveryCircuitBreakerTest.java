@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.silverpeas.wbe.wopi.discovery.DiscoveryCircuitBreaker.State.*;
+
+/**
+ * @author silveryocha
+ */
+class DiscoveryCircuitBreakerTest {
+
+  private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(10);
+  private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+  private MutableClock clock;
+  private DiscoveryCircuitBreaker breaker;
+
+  @BeforeEach
+  void createBreaker() {
+    clock = new MutableClock(Instant.parse("2021-06-01T10:00:00Z"));
+    breaker = new DiscoveryCircuitBreaker(clock);
+  }
+
+  @Test
+  void newCircuitIsClosed() {
+    final DiscoveryCircuitBreaker.Status status = breaker.getStatus();
+    assertThat(status.getState(), is(CLOSED));
+    assertThat(status.getConsecutiveFailures(), is(0));
+    assertThat(status.getRetryAfter(), is(Optional.empty()));
+    assertThat(status.getLastError(), is(Optional.empty()));
+    assertThat(breaker.isCallPermitted(), is(true));
+  }
+
+  @Test
+  void failureOpensTheCircuitUntilTheEndOfTheBackoff() {
+    final DiscoveryCircuitBreaker.Status status = fail();
+    assertThat(status.getState(), is(OPEN));
+    assertThat(status.getConsecutiveFailures(), is(1));
+    assertThat(status.getRetryAfter(), is(Optional.of(clock.instant().plus(INITIAL_BACKOFF))));
+    assertThat(status.getLastError(), is(Optional.of("connection refused")));
+    assertThat(breaker.isCallPermitted(), is(false));
+
+    clock.advance(INITIAL_BACKOFF.minusMillis(1));
+    assertThat(breaker.getStatus().getState(), is(OPEN));
+    assertThat(breaker.isCallPermitted(), is(false));
+
+    clock.advance(Duration.ofMillis(1));
+    assertThat(breaker.getStatus().getState(), is(HALF_OPEN));
+    assertThat(breaker.isCallPermitted(), is(true));
+  }
+
+  @Test
+  void successAfterTheBackoffClosesTheCircuit() {
+    fail();
+    clock.advance(INITIAL_BACKOFF);
+    assertThat(breaker.getStatus().getState(), is(HALF_OPEN));
+
+    breaker.recordSuccess();
+    assertThat(breaker.getStatus().getState(), is(CLOSED));
+    assertThat(breaker.getStatus().getConsecutiveFailures(), is(0));
+    assertThat(breaker.getStatus().getRetryAfter(), is(Optional.empty()));
+
+    // the backoff starts again from the initial one
+    assertThat(fail().getRetryAfter(), is(Optional.of(clock.instant().plus(INITIAL_BACKOFF))));
+  }
+
+  @Test
+  void failureAfterTheBackoffReopensTheCircuitForALongerDelay() {
+    fail();
+    clock.advance(INITIAL_BACKOFF);
+    assertThat(breaker.getStatus().getState(), is(HALF_OPEN));
+
+    final DiscoveryCircuitBreaker.Status status = fail();
+    assertThat(status.getState(), is(OPEN));
+    assertThat(status.getConsecutiveFailures(), is(2));
+    assertThat(status.getRetryAfter(),
+        is(Optional.of(clock.instant().plus(INITIAL_BACKOFF.multipliedBy(2)))));
+  }
+
+  @Test
+  void backoffGrowsExponentiallyUpToTheMaximum() {
+    final long[] expectedSeconds = {10, 20, 40, 80, 160, 300, 300};
+    for (final long seconds : expectedSeconds) {
+      final DiscoveryCircuitBreaker.Status status = fail();
+      assertThat(status.getRetryAfter(),
+          is(Optional.of(clock.instant().plus(Duration.ofSeconds(seconds)))));
+      clock.advance(Duration.ofSeconds(seconds));
+    }
+  }
+
+  @Test
+  void backoffNeverOverflowsAfterManyFailures() {
+    DiscoveryCircuitBreaker.Status status = null;
+    for (int i = 0; i < 100; i++) {
+      status = fail();
+    }
+    assertThat(status.getConsecutiveFailures(), is(100));
+    assertThat(status.getRetryAfter(), is(Optional.of(clock.instant().plus(MAX_BACKOFF))));
+  }
+
+  private DiscoveryCircuitBreaker.Status fail() {
+    return breaker.recordFailure(new IOException("connection refused"), INITIAL_BACKOFF,
+        MAX_BACKOFF);
+  }
+
+  /**
+   * A clock whose time is moved forward by the tests.
+   */
+  private static class MutableClock extends Clock {
+    private Instant now;
+
+    private MutableClock(final Instant now) {
+      this.now = now;
+    }
+
+    private void advance(final Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
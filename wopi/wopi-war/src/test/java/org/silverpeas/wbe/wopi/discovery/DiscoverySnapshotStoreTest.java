@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author silveryocha
+ */
+class DiscoverySnapshotStoreTest {
+
+  private static final String DISCOVERY_URL = "https://wopi.silverpeas.org/hosting/discovery";
+  private static final Instant FETCH_TIME = Instant.parse("2021-06-01T10:00:00.123Z");
+
+  @TempDir
+  Path directory;
+
+  private Path file;
+  private DiscoverySnapshotStore store;
+
+  @BeforeEach
+  void createStore() {
+    file = directory.resolve("snapshots").resolve("discovery");
+    store = new DiscoverySnapshotStore(file);
+  }
+
+  @Test
+  void noSnapshotIsLoadedWhenNothingWasSaved() {
+    assertThat(store.load(), is(Optional.empty()));
+  }
+
+  @Test
+  void savedSnapshotIsLoadedAsItWas() throws IOException {
+    final DiscoverySnapshot snapshot = new DiscoverySnapshot(DISCOVERY_URL, FETCH_TIME,
+        WopiActionTable.builder()
+            .add("application/vnd.oasis.opendocument.text", "edit", "odt",
+                "https://wopi.silverpeas.org/browser/cool.html?")
+            .add("application/vnd.oasis.opendocument.text", "view", null,
+                "https://wopi.silverpeas.org/browser/view.html?")
+            .add("", "edit", "docx", "https://wopi.silverpeas.org/browser/cool.html?")
+            .build());
+    store.save(snapshot);
+
+    final DiscoverySnapshot loaded = store.load().orElseThrow();
+    assertThat(loaded.getDiscoveryUrl(), is(DISCOVERY_URL));
+    assertThat(loaded.getFetchTime(), is(FETCH_TIME));
+    assertThat(loaded.getFingerprint(), is(snapshot.getFingerprint()));
+    assertThat(loaded.changesFrom(snapshot).isEmpty(), is(true));
+    final List<WopiActionTable.Entry> entries = loaded.getActions().getEntries();
+    assertThat(entries, hasSize(3));
+    assertThat(entries.get(1).getAction(), is("view"));
+    assertThat(entries.get(1).getExtension(), nullValue());
+    assertThat(loaded.getActions().find("application/unknown", "docx", WopiActionTable.EDIT),
+        is(Optional.of("https://wopi.silverpeas.org/browser/cool.html?")));
+    try (final Stream<Path> files = Files.list(file.getParent())) {
+      assertThat(files.collect(Collectors.toList()), contains(file));
+    }
+  }
+
+  @Test
+  void snapshotOfAnotherFormatVersionIsIgnored() throws IOException {
+    writeSnapshot("wopi-discovery-snapshot 1",
+        "url\t" + DISCOVERY_URL,
+        "time\t" + FETCH_TIME.toEpochMilli(),
+        "a\tapplication/vnd.oasis.opendocument.text\tedit\todt\thttps://wopi/edit");
+    assertThat(store.load(), is(Optional.empty()));
+  }
+
+  @Test
+  void corruptedSnapshotIsIgnored() throws IOException {
+    writeSnapshot("wopi-discovery-snapshot 2",
+        "url\t" + DISCOVERY_URL,
+        "time\tnot a time",
+        "a\tapplication/vnd.oasis.opendocument.text\tedit\todt\thttps://wopi/edit");
+    assertThat(store.load(), is(Optional.empty()));
+  }
+
+  @Test
+  void truncatedSnapshotIsIgnored() throws IOException {
+    writeSnapshot("wopi-discovery-snapshot 2",
+        "url\t" + DISCOVERY_URL,
+        "time\t" + FETCH_TIME.toEpochMilli());
+    assertThat(store.load(), is(Optional.empty()));
+    writeSnapshot("wopi-discovery-snapshot 2",
+        "a\tapplication/vnd.oasis.opendocument.text\tedit\todt\thttps://wopi/edit");
+    assertThat(store.load(), is(Optional.empty()));
+  }
+
+  private void writeSnapshot(final String... lines) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, List.of(lines), UTF_8);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.silverpeas.wbe.wopi.discovery.WopiActionTable.EDIT;
+import static org.silverpeas.wbe.wopi.discovery.WopiActionTable.VIEW;
+
+/**
+ * @author silveryocha
+ */
+class WopiActionTableTest {
+
+  private static final String ODT = "application/vnd.oasis.opendocument.text";
+  private static final String ODS = "application/vnd.oasis.opendocument.spreadsheet";
+
+  @Test
+  void editionOfMimeTypeIsTheLastActionContainingEdit() {
+    final WopiActionTable table = WopiActionTable.builder()
+        .add(ODT, "view", null, "https://wopi/odt/view")
+        .add(ODT, "edit", null, "https://wopi/odt/edit")
+        .add(ODT, "embededit", null, "https://wopi/odt/embededit")
+        .add(ODS, "embededit", null, "https://wopi/ods/embededit")
+        .add(ODS, "edit", null, "https://wopi/ods/edit")
+        .build();
+    assertThat(table.find(ODT, "odt", EDIT), is(Optional.of("https://wopi/odt/embededit")));
+    assertThat(table.find(ODS, "ods", EDIT), is(Optional.of("https://wopi/ods/edit")));
+    assertThat(table.find(ODT, "odt", VIEW), is(Optional.of("https://wopi/odt/view")));
+    assertThat(table.find(ODS, "ods", VIEW), is(Optional.empty()));
+    assertThat(table.find(ODT, "odt", "embededit"),
+        is(Optional.of("https://wopi/odt/embededit")));
+  }
+
+  @Test
+  void actionOfExtensionMustMatchExactly() {
+    final WopiActionTable table = WopiActionTable.builder()
+        .add("", "embededit", "docx", "https://wopi/docx/embededit")
+        .add("", "edit", "xlsx", "https://wopi/xlsx/edit")
+        .add("", "edit", "xlsx", "https://wopi/xlsx/edit2")
+        .build();
+    assertThat(table.find("application/unknown", "docx", EDIT), is(Optional.empty()));
+    assertThat(table.find("application/unknown", "xlsx", EDIT),
+        is(Optional.of("https://wopi/xlsx/edit2")));
+    assertThat(table.getUrlsByMimeType().isEmpty(), is(true));
+  }
+
+  @Test
+  void mimeTypeIsPreferredToExtension() {
+    final WopiActionTable table = WopiActionTable.builder()
+        .add(ODT, "edit", "odt", "https://wopi/odt/edit")
+        .add("", "edit", "odt", "https://wopi/ext/odt/edit")
+        .build();
+    assertThat(table.find(ODT, "odt", EDIT), is(Optional.of("https://wopi/odt/edit")));
+    assertThat(table.find("application/octet-stream", "odt", EDIT),
+        is(Optional.of("https://wopi/ext/odt/edit")));
+  }
+
+  @Test
+  void actionsWithoutNameOrUrlAreIgnored() {
+    final WopiActionTable table = WopiActionTable.builder()
+        .add(ODT, "", null, "https://wopi/odt/edit")
+        .add(ODT, "edit", null, null)
+        .build();
+    assertThat(table.isEmpty(), is(true));
+    assertThat(table.find(ODT, "odt", EDIT), is(Optional.empty()));
+  }
+}
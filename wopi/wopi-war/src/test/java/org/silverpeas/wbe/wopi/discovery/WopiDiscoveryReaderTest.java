@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.discovery;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author silveryocha
+ */
+class WopiDiscoveryReaderTest {
+
+  @Test
+  void readsSameActionsAsTheJaxbLoading() throws IOException {
+    final List<String> expected = new ArrayList<>();
+    try (InputStream in = getDiscoveryXmlStream()) {
+      WopiDiscovery.load(in).getNetZone().getApps().forEach(ap -> ap.getActions()
+          .forEach(ac -> expected.add(
+              String.join("|", ap.getName(), ac.getName(), ac.getExt(), ac.getUrlsrc()))));
+    }
+    final List<String> actual = new ArrayList<>();
+    try (InputStream in = getDiscoveryXmlStream()) {
+      WopiDiscoveryReader.read(in, (appName, actionName, ext, urlsrc) -> actual.add(
+          String.join("|", appName, actionName, ext, urlsrc)));
+    }
+    assertThat(actual, not(empty()));
+    assertThat(actual, is(expected));
+  }
+
+  @Test
+  void snapshotFromStreamingReading() throws IOException {
+    final DiscoverySnapshot snapshot;
+    try (InputStream in = getDiscoveryXmlStream()) {
+      snapshot = DiscoverySnapshot.load("http://CLIENT_HOST/hosting/discovery", in);
+    }
+    assertThat(snapshot.isEmpty(), is(false));
+    assertThat(snapshot.getBaseUrlFor("image/svg+xml", null).orElse(null),
+        is("http://CLIENT_HOST/loleaflet/b889fbb/loleaflet.html?"));
+    assertThat(snapshot.getBaseUrlFor("unknown", "xsvg").isPresent(), is(true));
+    assertThat(snapshot.getBaseUrlFor("unknown", "svg").isPresent(), is(false));
+    assertThat(snapshot.getBaseUrlFor("application/vnd.sun.xml.writer", "sxw").isPresent(),
+        is(false));
+    final WopiActionTable actions = snapshot.getActions();
+    assertThat(actions.find("application/vnd.sun.xml.writer", "sxw", WopiActionTable.VIEW)
+        .isPresent(), is(true));
+    assertThat(actions.find("unknown", "sxw", WopiActionTable.VIEW).isPresent(), is(true));
+    assertThat(actions.find("image/svg+xml", "svg", WopiActionTable.VIEW).isPresent(), is(true));
+  }
+
+  @Test
+  void streamingReadingIndexesAllTheActionsInTheOrderOfTheDiscovery() throws IOException {
+    final WopiActionTable.Builder builder = WopiActionTable.builder();
+    try (InputStream in = getDiscoveryXmlStream()) {
+      WopiDiscoveryReader.read(in, builder::add);
+    }
+    final WopiActionTable actions = builder.build();
+    final List<WopiActionTable.Entry> entries = actions.getEntries();
+    assertThat(entries, hasSize(97));
+    final WopiActionTable.Entry first = entries.get(0);
+    assertThat(first.getMimeType(), is("image/svg+xml"));
+    assertThat(first.getAction(), is("view"));
+    assertThat(first.getExtension(), is("svg"));
+    assertThat(first.getUrl(), is("http://CLIENT_HOST/loleaflet/b889fbb/loleaflet.html?"));
+    final WopiActionTable.Entry last = entries.get(entries.size() - 1);
+    assertThat(last.getMimeType(), is("Capabilities"));
+    assertThat(last.getAction(), is("getinfo"));
+    assertThat(last.getExtension(), nullValue());
+    assertThat(actions.find("Capabilities", null, "getinfo").orElse(null),
+        is("http://CLIENT_HOST/hosting/capabilities"));
+    // the actions commented out in the discovery are not read
+    assertThat(actions.find("application/vnd.sun.xml.math", "sxm", WopiActionTable.VIEW)
+        .isPresent(), is(false));
+    assertThat(actions.find("application/vnd.oasis.opendocument.formula", "odf",
+        WopiActionTable.EDIT).isPresent(), is(false));
+  }
+
+  private InputStream getDiscoveryXmlStream() {
+    return WopiDiscoveryReaderTest.class.getClassLoader()
+        .getResourceAsStream("org/silverpeas/wbe/wopi/discovery.xml");
+  }
+}
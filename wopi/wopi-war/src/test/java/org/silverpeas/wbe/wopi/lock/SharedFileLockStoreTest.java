@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.lock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author silveryocha
+ */
+class SharedFileLockStoreTest {
+
+  private static final String FILE_ID = "file/26";
+  private static final Instant EXPIRATION = Instant.parse("2021-06-01T10:00:00.123456Z");
+
+  @TempDir
+  Path directory;
+
+  private SharedFileLockStore node1;
+  private SharedFileLockStore node2;
+
+  @BeforeEach
+  void createNodes() {
+    node1 = new SharedFileLockStore(directory);
+    node2 = new SharedFileLockStore(directory);
+  }
+
+  @Test
+  void lockSetByANodeIsSeenByAnother() {
+    final WopiLock lock = new WopiLock(FILE_ID, "lock-1", EXPIRATION);
+    assertThat(node1.get(FILE_ID).isPresent(), is(false));
+    assertThat(node1.compareAndSet(FILE_ID, null, lock), is(true));
+    assertThat(node2.get(FILE_ID).orElseThrow(), is(lock));
+  }
+
+  @Test
+  void compareAndSetFailsOnUnexpectedLock() {
+    final WopiLock lock1 = new WopiLock(FILE_ID, "lock-1", EXPIRATION);
+    final WopiLock lock2 = new WopiLock(FILE_ID, "lock-2", EXPIRATION);
+    assertThat(node1.compareAndSet(FILE_ID, null, lock1), is(true));
+    assertThat(node2.compareAndSet(FILE_ID, null, lock2), is(false));
+    assertThat(node2.compareAndSet(FILE_ID, lock2, null), is(false));
+    assertThat(node2.compareAndSet(FILE_ID, lock1, lock2), is(true));
+    assertThat(node1.compareAndSet(FILE_ID, lock2, null), is(true));
+    assertThat(node1.get(FILE_ID).isPresent(), is(false));
+    assertThat(node2.compareAndSet(FILE_ID, null, lock1), is(true));
+  }
+
+  @Test
+  void refreshOnlyExtendsTheSameLock() {
+    final WopiLock lock1 = new WopiLock(FILE_ID, "lock-1", EXPIRATION);
+    final WopiLock other = new WopiLock("other", "lock-1", EXPIRATION);
+    final Instant later = EXPIRATION.plusSeconds(1800);
+    node1.compareAndSet(FILE_ID, null, lock1);
+    node1.compareAndSet("other", null, other);
+    node2.refresh(List.of(new WopiLock(FILE_ID, "lock-1", later),
+        new WopiLock("other", "lock-2", later), new WopiLock("none", "lock-3", later)));
+    assertThat(node1.get(FILE_ID).orElseThrow().getExpiration(),
+        is(later.truncatedTo(MILLIS)));
+    assertThat(node1.get("other").orElseThrow(), is(other));
+    assertThat(node1.get("none").isPresent(), is(false));
+  }
+
+  @Test
+  void extendedLockIsKeptWithItsDigest() {
+    final String lockId = "{\"S\":\"" + "x".repeat(4096) + "\"}\n";
+    final WopiLock lock = new WopiLock(FILE_ID, lockId, EXPIRATION);
+    node1.compareAndSet(FILE_ID, null, lock);
+    final WopiLock read = node2.get(FILE_ID).orElseThrow();
+    assertThat(read.getLockId(), is(lockId));
+    assertThat(read.hasDigest(WopiLock.digestOf(lockId)), is(true));
+    assertThat(read.getDigest().length(), is(43));
+  }
+}
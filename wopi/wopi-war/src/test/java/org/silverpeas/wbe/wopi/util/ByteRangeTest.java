@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author silveryocha
+ */
+class ByteRangeTest {
+
+  private static final long LENGTH = 1000;
+
+  @Test
+  void noOrIgnoredHeaderGivesNoRange() {
+    assertThat(ByteRange.parse(null, LENGTH).isPresent(), is(false));
+    assertThat(ByteRange.parse("", LENGTH).isPresent(), is(false));
+    assertThat(ByteRange.parse("items=0-10", LENGTH).isPresent(), is(false));
+    assertThat(ByteRange.parse("bytes=0-10,20-30", LENGTH).isPresent(), is(false));
+    assertThat(ByteRange.parse("bytes=abc-10", LENGTH).isPresent(), is(false));
+    assertThat(ByteRange.parse("bytes=20-10", LENGTH).isPresent(), is(false));
+  }
+
+  @Test
+  void closedRange() {
+    final ByteRange range = ByteRange.parse("bytes=100-199", LENGTH).orElseThrow();
+    assertThat(range.getFirst(), is(100L));
+    assertThat(range.getLast(), is(199L));
+    assertThat(range.getLength(), is(100L));
+    assertThat(range.toContentRange(LENGTH), is("bytes 100-199/1000"));
+  }
+
+  @Test
+  void openAndOverflowingRangesEndAtTheLastByte() {
+    assertThat(ByteRange.parse("bytes=900-", LENGTH).orElseThrow().getLast(), is(999L));
+    assertThat(ByteRange.parse("bytes=900-5000", LENGTH).orElseThrow().getLength(), is(100L));
+  }
+
+  @Test
+  void suffixRange() {
+    final ByteRange range = ByteRange.parse("bytes=-300", LENGTH).orElseThrow();
+    assertThat(range.getFirst(), is(700L));
+    assertThat(range.getLast(), is(999L));
+    assertThat(ByteRange.parse("bytes=-5000", LENGTH).orElseThrow().getFirst(), is(0L));
+  }
+
+  @Test
+  void rangeBeyondTheContentIsNotSatisfiable() {
+    assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=1000-", LENGTH));
+    assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=-0", LENGTH));
+    assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=-10", 0));
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author silveryocha
+ */
+class ConsistentHashRingTest {
+
+  private static final List<String> SERVERS =
+      List.of("https://wopi1.silverpeas.org", "https://wopi2.silverpeas.org",
+          "https://wopi3.silverpeas.org");
+
+  @Test
+  void emptyRingSelectsNothing() {
+    final ConsistentHashRing<String> ring = new ConsistentHashRing<>(List.of(),
+        Function.identity(), 100);
+    assertThat(ring.isEmpty(), is(true));
+    assertThat(ring.select("42", s -> true).isPresent(), is(false));
+  }
+
+  @Test
+  void sameKeyIsAlwaysGivenToTheSameNode() {
+    final ConsistentHashRing<String> ring = newRing();
+    final ConsistentHashRing<String> otherRing = newRing();
+    for (int i = 0; i < 1000; i++) {
+      final String fileId = String.valueOf(i);
+      final String server = ring.select(fileId, s -> true).orElseThrow();
+      assertThat(ring.select(fileId, s -> true).orElseThrow(), is(server));
+      assertThat(otherRing.select(fileId, s -> true).orElseThrow(), is(server));
+    }
+  }
+
+  @Test
+  void keysAreSpreadOverAllTheNodes() {
+    final ConsistentHashRing<String> ring = newRing();
+    final Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 3000; i++) {
+      ring.select(String.valueOf(i), s -> true).ifPresent(s -> counts.merge(s, 1, Integer::sum));
+    }
+    assertThat(counts.keySet(), containsInAnyOrder(SERVERS.toArray()));
+    counts.values().forEach(c -> assertThat(c, greaterThan(600)));
+  }
+
+  @Test
+  void onlyKeysOfNotEligibleNodeAreMoved() {
+    final ConsistentHashRing<String> ring = newRing();
+    final String failingServer = SERVERS.get(1);
+    for (int i = 0; i < 1000; i++) {
+      final String fileId = String.valueOf(i);
+      final String server = ring.select(fileId, s -> true).orElseThrow();
+      final String otherServer = ring.select(fileId, s -> !s.equals(failingServer)).orElseThrow();
+      assertThat(otherServer, not(failingServer));
+      if (!server.equals(failingServer)) {
+        assertThat(otherServer, is(server));
+      }
+    }
+    assertThat(ring.select("42", s -> false).isPresent(), is(false));
+  }
+
+  private static ConsistentHashRing<String> newRing() {
+    return new ConsistentHashRing<>(SERVERS, Function.identity(), 100);
+  }
+}
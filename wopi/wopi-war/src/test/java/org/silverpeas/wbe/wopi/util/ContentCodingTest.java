@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author silveryocha
+ */
+class ContentCodingTest {
+
+  @Test
+  void onlyUncompressedFormatsAreCompressible() {
+    assertThat(ContentCoding.isCompressible("text/csv"), is(true));
+    assertThat(ContentCoding.isCompressible("text/plain; charset=UTF-8"), is(true));
+    assertThat(ContentCoding.isCompressible("application/vnd.oasis.opendocument.text-flat-xml"),
+        is(true));
+    assertThat(ContentCoding.isCompressible("image/svg+xml"), is(true));
+    assertThat(ContentCoding.isCompressible("application/vnd.oasis.opendocument.text"),
+        is(false));
+    assertThat(ContentCoding.isCompressible(
+        "application/vnd.openxmlformats-officedocument.wordprocessingml.document"), is(false));
+    assertThat(ContentCoding.isCompressible("image/png"), is(false));
+    assertThat(ContentCoding.isCompressible(null), is(false));
+  }
+
+  @Test
+  void gzipAcceptance() {
+    assertThat(ContentCoding.isGzipAccepted(null), is(false));
+    assertThat(ContentCoding.isGzipAccepted("gzip, deflate, br"), is(true));
+    assertThat(ContentCoding.isGzipAccepted("br;q=1.0, gzip;q=0.5"), is(true));
+    assertThat(ContentCoding.isGzipAccepted("gzip;q=0, *"), is(false));
+    assertThat(ContentCoding.isGzipAccepted("*"), is(true));
+    assertThat(ContentCoding.isGzipAccepted("*;q=0"), is(false));
+    assertThat(ContentCoding.isGzipAccepted("identity"), is(false));
+  }
+
+  @Test
+  void decoding() throws IOException {
+    final byte[] content = "a;b;c\n1;2;3\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+    final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    try (final GZIPOutputStream gzip = new GZIPOutputStream(encoded)) {
+      gzip.write(content);
+    }
+    try (final InputStream decoded = ContentCoding.decode(
+        new ByteArrayInputStream(encoded.toByteArray()), "gzip")) {
+      assertThat(decoded.readAllBytes(), is(content));
+    }
+    try (final InputStream decoded = ContentCoding.decode(new ByteArrayInputStream(content),
+        null)) {
+      assertThat(decoded.readAllBytes(), is(content));
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> ContentCoding.decode(new ByteArrayInputStream(content), "zstd"));
+  }
+}
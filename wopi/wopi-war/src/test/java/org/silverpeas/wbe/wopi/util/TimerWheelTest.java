@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2000 - 2021 Silverpeas
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * As a special exception to the terms and conditions of version 3.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * Open Source Software ("FLOSS") applications as described in Silverpeas's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * "https://www.silverpeas.org/legal/floss_exception.html"
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.silverpeas.wbe.wopi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author silveryocha
+ */
+class TimerWheelTest {
+
+  private static final long TICK = 1000;
+
+  private final TimerWheel<String, String> wheel =
+      new TimerWheel<>(Duration.ofMillis(TICK), 8, 0);
+  private final List<String> reached = new ArrayList<>();
+
+  @Test
+  void deadlineIsReachedAtItsTickAndNotBefore() {
+    wheel.schedule("a", "lock-a", 2500);
+    advance(2999);
+    assertThat(reached, is(empty()));
+    advance(3000);
+    assertThat(reached, contains("a=lock-a"));
+    assertThat(wheel.contains("a"), is(false));
+  }
+
+  @Test
+  void rescheduledDeadlineIsExtended() {
+    wheel.schedule("a", "lock-a", 2000);
+    wheel.schedule("a", "lock-b", 5000);
+    advance(4000);
+    assertThat(reached, is(empty()));
+    advance(5000);
+    assertThat(reached, contains("a=lock-b"));
+  }
+
+  @Test
+  void deadlineOfAnAlreadyVisitedTickIsReachedAtTheNextAdvance() {
+    advance(3000);
+    wheel.schedule("a", "lock-a", 2000);
+    advance(3999);
+    assertThat(reached, is(empty()));
+    advance(4000);
+    assertThat(reached, contains("a=lock-a"));
+  }
+
+  @Test
+  void deadlineScheduledByTheConsumerIsNotLost() {
+    wheel.schedule("a", "lock-a", 1000);
+    wheel.advance(1000, (k, v) -> wheel.schedule(k, v + "-refreshed", 1000));
+    assertThat(wheel.contains("a"), is(true));
+    advance(2000);
+    assertThat(reached, contains("a=lock-a-refreshed"));
+  }
+
+  @Test
+  void cancelledDeadlineIsNeverReached() {
+    wheel.schedule("a", "lock-a", 2000);
+    assertThat(wheel.cancel("a").orElseThrow(), is("lock-a"));
+    advance(10000);
+    assertThat(reached, is(empty()));
+    assertThat(wheel.size(), is(0));
+  }
+
+  @Test
+  void deadlineBeyondTheSpanOfTheWheelStaysForSeveralRounds() {
+    wheel.schedule("a", "lock-a", 20000);
+    advance(12000);
+    advance(19999);
+    assertThat(reached, is(empty()));
+    advance(20000);
+    assertThat(reached, contains("a=lock-a"));
+  }
+
+  @Test
+  void elapsedTicksAreAllVisitedAtOnce() {
+    wheel.schedule("a", "lock-a", 1000);
+    wheel.schedule("b", "lock-b", 3000);
+    wheel.schedule("c", "lock-c", 9000);
+    advance(5000);
+    assertThat(reached, contains("a=lock-a", "b=lock-b"));
+    assertThat(wheel.size(), is(1));
+  }
+
+  @Test
+  void deadlineCanBeExpiredOnDemand() {
+    wheel.schedule("a", "lock-a", 2000);
+    assertThat(wheel.expire("a", 1999).isPresent(), is(false));
+    assertThat(wheel.expire("a", 2000).orElseThrow(), is("lock-a"));
+    assertThat(wheel.contains("a"), is(false));
+  }
+
+  private void advance(final long now) {
+    wheel.advance(now, (k, v) -> reached.add(k + "=" + v));
+  }
+}